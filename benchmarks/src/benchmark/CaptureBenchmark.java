@@ -0,0 +1,52 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import process.HistoryPolicy;
+import process.SProcess;
+import process.SProcessExecutor;
+
+/**
+ * Time to capture the stdOut of a command writing the given number of bytes with getNormalOutput,
+ * with the default unbounded history and with the history disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureBenchmark {
+
+	@Param({"1024", "1048576", "67108864"})
+	public int bytes;
+
+	@Param({"true", "false"})
+	public boolean history;
+
+	@Benchmark
+	public long getNormalOutput() throws Exception{
+		SProcess command = new Command("head -c " + this.bytes + " /dev/zero");
+		if(!this.history){
+			command.setHistoryPolicy(HistoryPolicy.disabled());
+		}
+		SProcessExecutor.getCommandExecutor().executeCommand(command);
+		long read = 0;
+		while(command.awaitNormalOutput(1, TimeUnit.MINUTES)){
+			read += command.getNormalOutput().length();
+		}
+		return read;
+	}
+
+}
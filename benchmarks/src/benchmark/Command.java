@@ -0,0 +1,27 @@
+package benchmark;
+
+import process.SProcess;
+import process.SProcessExecutor.OS;
+
+/**
+ * A UNIX command given as a String, used by the benchmarks.
+ */
+class Command extends SProcess{
+
+	private final String command;
+
+	Command(String command){
+		this.command = command;
+	}
+
+	@Override
+	public String getCommand() {
+		return this.command;
+	}
+
+	@Override
+	public OS getOSType() {
+		return OS.UNIX;
+	}
+
+}
@@ -0,0 +1,59 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import process.PipeThread;
+import process.SProcessExecutor;
+import process.SProcessPipeline;
+import process.SProcessPiped;
+
+/**
+ * Throughput of moving the given number of bytes from one command to another, through a PipeThread in the
+ * JVM and through an OS pipe in a SProcessPipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipeBenchmark {
+
+	@Param({"1048576", "67108864"})
+	public int bytes;
+
+	@Benchmark
+	public String pipeThread() throws Exception{
+		SProcessExecutor executor = SProcessExecutor.getCommandExecutor();
+		SProcessPiped source = new PipedCommand("head -c " + this.bytes + " /dev/zero");
+		SProcessPiped sink = new PipedCommand("wc -c");
+		executor.executeCommand(source);
+		executor.executeCommand(sink);
+		PipeThread pipe = source.PipeOutputTo(sink);
+		// Also waits until the output of wc is received, not only for its exit
+		sink.onCompletion().get();
+		if(pipe.getBytesTransferred() != this.bytes){
+			throw new IllegalStateException("Transferred " + pipe.getBytesTransferred() + " of " + this.bytes + " bytes");
+		}
+		return sink.getNormalOutput();
+	}
+
+	@Benchmark
+	public String pipeline() throws Exception{
+		SProcessPipeline pipeline = new SProcessPipeline(
+				new PipedCommand("head -c " + this.bytes + " /dev/zero"), new PipedCommand("wc -c"));
+		return SProcessExecutor.getCommandExecutor().executeCommandAsync(pipeline).get(1, TimeUnit.MINUTES).getNormalOutput();
+	}
+
+}
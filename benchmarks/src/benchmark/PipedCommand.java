@@ -0,0 +1,27 @@
+package benchmark;
+
+import process.SProcessExecutor.OS;
+import process.SProcessPiped;
+
+/**
+ * A UNIX command given as a String that can be connected to other commands with a PipeThread.
+ */
+class PipedCommand extends SProcessPiped{
+
+	private final String command;
+
+	PipedCommand(String command){
+		this.command = command;
+	}
+
+	@Override
+	public String getCommand() {
+		return this.command;
+	}
+
+	@Override
+	public OS getOSType() {
+		return OS.UNIX;
+	}
+
+}
@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import process.SProcess;
+import process.SProcessExecutor;
+import process.ShellPool;
+
+/**
+ * Latency of starting a trivial command through SProcessExecutor.executeCommand and waiting for it,
+ * with a shell per command, direct execution and a pool of warm shells.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpawnBenchmark {
+
+	public enum MODE{
+		SHELL, DIRECT, POOL;
+	}
+
+	@Param({"SHELL", "DIRECT", "POOL"})
+	public MODE mode;
+
+	private SProcessExecutor executor;
+	private ShellPool pool;
+
+	@Setup
+	public void setup() throws IOException{
+		this.executor = SProcessExecutor.getCommandExecutor();
+		this.executor.setDirectExecEnabled(this.mode == MODE.DIRECT);
+		if(this.mode == MODE.POOL){
+			this.pool = new ShellPool(Runtime.getRuntime().availableProcessors());
+			this.executor.setShellPool(this.pool);
+		}
+	}
+
+	@TearDown
+	public void tearDown(){
+		this.executor.setDirectExecEnabled(false);
+		this.executor.setShellPool(null);
+		if(this.pool != null){
+			this.pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public Integer executeCommand() throws Exception{
+		SProcess command = new Command("/bin/true");
+		this.executor.executeCommand(command);
+		command.onCompletion().get();
+		return command.getExitCode();
+	}
+
+	@Benchmark
+	public Integer executeCommandAsync() throws Exception{
+		return this.executor.executeCommandAsync(new Command("/bin/true")).get().getExitCode();
+	}
+
+}
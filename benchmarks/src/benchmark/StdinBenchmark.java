@@ -0,0 +1,60 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import process.SProcess;
+import process.SProcessExecutor;
+
+/**
+ * Throughput of writing the given number of bytes to the stdIn of a command with writeToProcessStdIn,
+ * in chunks of the given size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StdinBenchmark {
+
+	@Param({"1048576", "67108864"})
+	public int bytes;
+
+	@Param({"64", "65536"})
+	public int chunkSize;
+
+	private String chunk;
+
+	@Setup
+	public void setup(){
+		char[] chars = new char[this.chunkSize];
+		Arrays.fill(chars, 'x');
+		this.chunk = new String(chars);
+	}
+
+	@Benchmark
+	public Integer writeToProcessStdIn() throws Exception{
+		// head exits once it read all bytes, the output is discarded
+		SProcess command = new Command("head -c " + this.bytes + " > /dev/null");
+		SProcessExecutor.getCommandExecutor().executeCommand(command);
+		for(int written = 0; written < this.bytes; written += this.chunkSize){
+			command.writeToProcessStdIn(this.chunk);
+		}
+		command.waitForCompletion();
+		return command.getExitCode();
+	}
+
+}
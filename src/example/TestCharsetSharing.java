@@ -0,0 +1,111 @@
+package example;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import process.ResultCache;
+import process.SProcess;
+import process.SProcessExecutor;
+import process.SProcessExecutor.OS;
+import process.SProcessResult;
+
+/**
+ * Test that the same command run with two charsets does not share its result, neither through the result
+ * cache nor through single-flight: every SProcess must get its output decoded with its own charset.
+ * Prints one line per scenario, and exits with 1 if one of them failed.
+ */
+public class TestCharsetSharing {
+
+	// The UTF-8 encoding of e acute, two characters in ISO-8859-1
+	private static final String OUTPUT = "printf '\\303\\251'";
+	private static final String UTF_8 = "\u00e9";
+	private static final String ISO_8859_1 = "\u00c3\u00a9";
+
+
+	static class Command extends SProcess{
+
+		private final String command;
+		private final Charset charset;
+
+		Command(String command, Charset charset){
+			this.command = command;
+			this.charset = charset;
+		}
+
+		@Override
+		public String getCommand() {
+			return this.command;
+		}
+
+		@Override
+		public OS getOSType() {
+			return OS.UNIX;
+		}
+
+		@Override
+		public Charset getCharset(){
+			return this.charset;
+		}
+
+		@Override
+		public long getCacheTimeToLive(){
+			return 60000;
+		}
+
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		SProcessExecutor executor = SProcessExecutor.getCommandExecutor();
+		boolean passed = true;
+		executor.setResultCache(new ResultCache(16));
+		try{
+			passed &= report("cached result", cached(executor));
+		}finally{
+			executor.setResultCache(null);
+		}
+		executor.setSingleFlightEnabled(true);
+		try{
+			passed &= report("coalesced result", coalesced(executor));
+		}finally{
+			executor.setSingleFlightEnabled(false);
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static boolean report(String scenario, String failure){
+		System.out.println((failure == null ? "PASS " : "FAIL ") + scenario + (failure == null ? "" : ": " + failure));
+		return failure == null;
+	}
+
+
+	private static String check(SProcessResult result, String expected, Charset charset){
+		return result.getNormalOutput().equals(expected) ? null : charset + " got \"" + result.getNormalOutput() + "\"";
+	}
+
+
+	/**
+	 * A result cached for one charset must not be returned for the other
+	 */
+	private static String cached(SProcessExecutor executor) throws Exception{
+		SProcessResult utf8 = executor.executeCommandAsync(new Command(OUTPUT, StandardCharsets.UTF_8)).get();
+		SProcessResult latin1 = executor.executeCommandAsync(new Command(OUTPUT, StandardCharsets.ISO_8859_1)).get();
+		String failure = check(utf8, UTF_8, StandardCharsets.UTF_8);
+		return failure != null ? failure : check(latin1, ISO_8859_1, StandardCharsets.ISO_8859_1);
+	}
+
+
+	/**
+	 * Two runs at the same time with different charsets must both execute
+	 */
+	private static String coalesced(SProcessExecutor executor) throws Exception{
+		String command = "sleep 0.5; " + OUTPUT;
+		CompletableFuture<SProcessResult> utf8 = executor.executeCommandAsync(new Command(command, StandardCharsets.UTF_8));
+		CompletableFuture<SProcessResult> latin1 = executor.executeCommandAsync(new Command(command, StandardCharsets.ISO_8859_1));
+		String failure = check(utf8.get(), UTF_8, StandardCharsets.UTF_8);
+		return failure != null ? failure : check(latin1.get(), ISO_8859_1, StandardCharsets.ISO_8859_1);
+	}
+
+}
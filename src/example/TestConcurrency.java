@@ -0,0 +1,191 @@
+package example;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import process.SProcess;
+import process.SProcessExecutor;
+import process.SProcessExecutor.OS;
+import process.SProcessResult;
+
+/**
+ * Stress test for using the library from many threads at once: executor lookups, concurrent executions,
+ * concurrent stdIn writes, and concurrent output reads and status checks on a single process.
+ * Prints one line per scenario, and exits with 1 if one of them failed.
+ */
+public class TestConcurrency {
+
+	private static final int THREADS = 64;
+
+
+	static class Command extends SProcess{
+
+		private final String command;
+
+		Command(String command){
+			this.command = command;
+		}
+
+		@Override
+		public String getCommand() {
+			return this.command;
+		}
+
+		@Override
+		public OS getOSType() {
+			return OS.UNIX;
+		}
+
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		boolean passed = true;
+		try{
+			passed &= report("executor lookup", executorLookup(threads));
+			passed &= report("concurrent executions", concurrentExecutions(threads));
+			passed &= report("concurrent stdIn writes", concurrentWrites(threads));
+			passed &= report("concurrent reads and status checks", concurrentReads(threads));
+		}finally{
+			threads.shutdownNow();
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+
+	private static boolean report(String scenario, String failure){
+		System.out.println((failure == null ? "PASS " : "FAIL ") + scenario + (failure == null ? "" : ": " + failure));
+		return failure == null;
+	}
+
+
+	/**
+	 * Every thread must get the same executor instance
+	 */
+	private static String executorLookup(ExecutorService threads) throws Exception{
+		List<Future<SProcessExecutor>> lookups = new ArrayList<>();
+		for(int i = 0; i < THREADS * 100; i++){
+			lookups.add(threads.submit(SProcessExecutor::getCommandExecutor));
+		}
+		Set<SProcessExecutor> executors = new HashSet<>();
+		for(Future<SProcessExecutor> lookup : lookups){
+			executors.add(lookup.get());
+		}
+		return executors.size() == 1 ? null : executors.size() + " executors";
+	}
+
+
+	/**
+	 * Every command must get its own output back, complete
+	 */
+	private static String concurrentExecutions(ExecutorService threads) throws Exception{
+		List<Future<String>> runs = new ArrayList<>();
+		for(int i = 0; i < THREADS * 8; i++){
+			int id = i;
+			runs.add(threads.submit(() -> {
+				SProcessExecutor executor = SProcessExecutor.getCommandExecutor();
+				String expected = "command " + id + " " + new String(new char[id]).replace('\0', 'x');
+				SProcessResult result = executor.executeCommandAsync(new Command("echo '" + expected + "'")).get();
+				return result.getNormalOutput().equals(expected + "\n") ? null : "command " + id + " got \"" + result.getNormalOutput() + "\"";
+			}));
+		}
+		for(Future<String> run : runs){
+			if(run.get() != null){
+				return run.get();
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Lines written by different threads to the same stdIn must arrive whole
+	 */
+	private static String concurrentWrites(ExecutorService threads) throws Exception{
+		int lines = 200;
+		// head exits once all lines arrived
+		Command cat = new Command("head -n " + THREADS * lines);
+		SProcessExecutor.getCommandExecutor().executeCommand(cat);
+		String line = new String(new char[100]).replace('\0', 'y');
+		List<Future<?>> writers = new ArrayList<>();
+		for(int t = 0; t < THREADS; t++){
+			int id = t;
+			writers.add(threads.submit(() -> {
+				for(int i = 0; i < lines; i++){
+					cat.writeToProcessStdIn(id + ":" + line + "\n");
+				}
+				return null;
+			}));
+		}
+		for(Future<?> writer : writers){
+			writer.get();
+		}
+		cat.onCompletion().get(30, TimeUnit.SECONDS);
+		String[] output = cat.getNormalOutput().split("\n");
+		if(output.length != THREADS * lines){
+			return output.length + " lines instead of " + THREADS * lines;
+		}
+		for(String received : output){
+			if(!received.endsWith(":" + line) || received.length() > line.length() + 4){
+				return "broken line \"" + received + "\"";
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Threads reading the output of the same process must together get every byte exactly once
+	 */
+	private static String concurrentReads(ExecutorService threads) throws Exception{
+		int count = 100000;
+		Command seq = new Command("seq 1 " + count);
+		SProcessExecutor.getCommandExecutor().executeCommand(seq);
+		AtomicInteger statusChecks = new AtomicInteger();
+		List<Future<String>> readers = new ArrayList<>();
+		for(int t = 0; t < THREADS; t++){
+			readers.add(threads.submit(() -> {
+				StringBuilder read = new StringBuilder();
+				while(true){
+					boolean done = seq.onCompletion().isDone();
+					read.append(seq.getNormalOutput());
+					seq.getStatus();
+					seq.getExitCode();
+					statusChecks.incrementAndGet();
+					if(done){
+						// Everything was received before this last read
+						return read.toString();
+					}
+					seq.awaitNormalOutput(10, TimeUnit.MILLISECONDS);
+				}
+			}));
+		}
+		int read = 0;
+		for(Future<String> reader : readers){
+			read += reader.get().length();
+		}
+		StringBuilder expected = new StringBuilder();
+		for(int i = 1; i <= count; i++){
+			expected.append(i).append('\n');
+		}
+		if(read != expected.length()){
+			return read + " characters read instead of " + expected.length();
+		}
+		if(!seq.getNormalOutputHistory().equals(expected.toString())){
+			return "output history differs from the output of seq";
+		}
+		if(seq.getStatus() != SProcess.STATUS.COMPLETED_NORMAL){
+			return "status " + seq.getStatus();
+		}
+		return statusChecks.get() > 0 ? null : "no status checks";
+	}
+
+}
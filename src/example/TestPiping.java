@@ -7,6 +7,7 @@ import process.exceptions.SProcessNotYetStartedException;
 import java.io.IOException;
 
 import process.SProcessExecutor;
+import process.SProcessPipeline;
 import process.SProcessPiped;
 
 public class TestPiping {
@@ -64,7 +65,13 @@ public class TestPiping {
 			
 			System.out.println("\n \n end output");
 
-		} catch (NonMatchingOSException | IOException | SProcessNotYetStartedException e) {
+			// Same chain, but wired by the OS instead of a copy thread in the JVM
+			SProcessPipeline pipeline = new SProcessPipeline(new Echo(), new Cat());
+			ex.executeCommand(pipeline);
+			pipeline.waitForCompletion();
+			System.out.println("pipeline output: " + pipeline.getNormalOutput());
+
+		} catch (NonMatchingOSException | IOException | SProcessNotYetStartedException | InterruptedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
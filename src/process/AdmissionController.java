@@ -0,0 +1,186 @@
+package process;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+import process.SProcessExecutor.REJECTION_POLICY;
+import process.exceptions.SProcessRejectedException;
+
+/**
+ * Limits the number of processes an SProcessExecutor runs at the same time.
+ * Commands over the limit wait in a bounded FIFO queue, when the queue is full the rejection policy decides
+ * which command is rejected. Waiting is done through futures, so asynchronous executions do not hold a
+ * thread while they are queued.
+ *
+ * @author polle
+ *
+ */
+class AdmissionController {
+
+	private static final CompletableFuture<Void> ADMITTED = CompletableFuture.completedFuture(null);
+
+	private int maxConcurrent = 0;
+	private int maxQueued = 0;
+	private REJECTION_POLICY policy = REJECTION_POLICY.REJECT_NEW;
+
+	private int running = 0;
+	private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+	// Statistics
+	private int peakQueued = 0;
+	private long admitted = 0;
+	private long rejected = 0;
+	private long totalWaitNanos = 0;
+	private long maxWaitNanos = 0;
+
+
+	/**
+	 * Change the limits, queued commands are admitted right away if the new limit allows it.
+	 * A maximum of 0 or less disables the limit.
+	 */
+	void configure(int maxConcurrent, int maxQueued, REJECTION_POLICY policy){
+		synchronized(this){
+			this.maxConcurrent = maxConcurrent;
+			this.maxQueued = Math.max(0, maxQueued);
+			this.policy = policy;
+		}
+		admitWaiters();
+	}
+
+
+	/**
+	 * Request a slot for the given command.
+	 *
+	 * @return
+	 * 		A future that completes when the command may start, or completes exceptionally with a
+	 * 		SProcessRejectedException. A waiting command can withdraw by cancelling the future.
+	 */
+	CompletableFuture<Void> admit(SProcess command){
+		Waiter evicted = null;
+		Waiter waiter;
+		synchronized(this){
+			if(this.maxConcurrent <= 0 || (this.running < this.maxConcurrent && this.queue.isEmpty())){
+				this.running++;
+				this.admitted++;
+				return ADMITTED;
+			}
+			if(this.queue.size() >= this.maxQueued){
+				if(this.policy == REJECTION_POLICY.REJECT_OLDEST && !this.queue.isEmpty()){
+					evicted = this.queue.pollFirst();
+				}else{
+					this.rejected++;
+					CompletableFuture<Void> failed = new CompletableFuture<>();
+					failed.completeExceptionally(new SProcessRejectedException(command, "wait queue is full"));
+					return failed;
+				}
+				this.rejected++;
+			}
+			waiter = new Waiter(command);
+			this.queue.addLast(waiter);
+			this.peakQueued = Math.max(this.peakQueued, this.queue.size());
+		}
+		if(evicted != null){
+			evicted.admission.completeExceptionally(
+					new SProcessRejectedException(evicted.command, "evicted from the wait queue by a newer command"));
+		}
+		return waiter.admission;
+	}
+
+
+	/**
+	 * Withdraw a command that is still waiting, or release its slot if it was admitted in the meantime.
+	 */
+	void withdraw(CompletableFuture<Void> admission){
+		if(admission.cancel(false)){
+			synchronized(this){
+				this.queue.removeIf(waiter -> waiter.admission == admission);
+			}
+		}else if(!admission.isCompletedExceptionally()){
+			release();
+		}
+	}
+
+
+	/**
+	 * Withdraw the given command if it is still waiting, its admission future is cancelled.
+	 * Nothing happens if it was admitted in the meantime.
+	 *
+	 * @return
+	 * 		true if the command was waiting
+	 */
+	boolean withdraw(SProcess command){
+		Waiter withdrawn = null;
+		synchronized(this){
+			Iterator<Waiter> iterator = this.queue.iterator();
+			while(iterator.hasNext()){
+				Waiter waiter = iterator.next();
+				if(waiter.command == command){
+					iterator.remove();
+					withdrawn = waiter;
+					break;
+				}
+			}
+		}
+		// Out of the queue, it can no longer be admitted
+		return withdrawn != null && withdrawn.admission.cancel(false);
+	}
+
+
+	/**
+	 * Release the slot of an admitted command and admit the next waiting command
+	 */
+	void release(){
+		synchronized(this){
+			this.running--;
+		}
+		admitWaiters();
+	}
+
+
+	private void admitWaiters(){
+		while(true){
+			Waiter next;
+			synchronized(this){
+				if(this.maxConcurrent > 0 && this.running >= this.maxConcurrent){
+					return;
+				}
+				next = this.queue.pollFirst();
+				if(next == null){
+					return;
+				}
+				long waited = System.nanoTime() - next.enqueuedNanos;
+				this.running++;
+				this.admitted++;
+				this.totalWaitNanos += waited;
+				this.maxWaitNanos = Math.max(this.maxWaitNanos, waited);
+			}
+			// Completed outside the lock, the command is started by the dependent action
+			if(!next.admission.complete(null)){
+				// Withdrawn concurrently, give the slot back
+				synchronized(this){
+					this.running--;
+					this.admitted--;
+				}
+			}
+		}
+	}
+
+
+	synchronized AdmissionStatistics getStatistics(){
+		return new AdmissionStatistics(this.maxConcurrent, this.running, this.queue.size(), this.peakQueued,
+				this.admitted, this.rejected, this.totalWaitNanos, this.maxWaitNanos);
+	}
+
+
+	private static class Waiter{
+		final SProcess command;
+		final CompletableFuture<Void> admission = new CompletableFuture<>();
+		final long enqueuedNanos = System.nanoTime();
+
+		Waiter(SProcess command){
+			this.command = command;
+		}
+	}
+
+}
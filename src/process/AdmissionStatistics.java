@@ -0,0 +1,126 @@
+package process;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the admission control statistics of a SProcessExecutor.
+ * 
+ * @author polle
+ *
+ */
+public final class AdmissionStatistics {
+
+	private final int maxConcurrent;
+	private final int running;
+	private final int queued;
+	private final int peakQueued;
+	private final long admitted;
+	private final long rejected;
+	private final long totalWaitNanos;
+	private final long maxWaitNanos;
+	
+	
+	AdmissionStatistics(int maxConcurrent, int running, int queued, int peakQueued, long admitted, long rejected,
+			long totalWaitNanos, long maxWaitNanos){
+		this.maxConcurrent = maxConcurrent;
+		this.running = running;
+		this.queued = queued;
+		this.peakQueued = peakQueued;
+		this.admitted = admitted;
+		this.rejected = rejected;
+		this.totalWaitNanos = totalWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+	}
+	
+	
+	/**
+	 * @return
+	 * 		The maximum number of concurrent processes, 0 if unlimited
+	 */
+	public int getMaxConcurrentProcesses(){
+		return this.maxConcurrent;
+	}
+	
+	
+	/**
+	 * @return
+	 * 		The number of processes currently running
+	 */
+	public int getRunningProcesses(){
+		return this.running;
+	}
+	
+	
+	/**
+	 * @return
+	 * 		The number of commands currently waiting to be started
+	 */
+	public int getQueueDepth(){
+		return this.queued;
+	}
+	
+	
+	/**
+	 * @return
+	 * 		The highest number of commands that waited at the same time
+	 */
+	public int getPeakQueueDepth(){
+		return this.peakQueued;
+	}
+	
+	
+	/**
+	 * @return
+	 * 		The number of commands that were allowed to start
+	 */
+	public long getAdmittedCount(){
+		return this.admitted;
+	}
+	
+	
+	/**
+	 * @return
+	 * 		The number of commands that were rejected
+	 */
+	public long getRejectedCount(){
+		return this.rejected;
+	}
+	
+	
+	/**
+	 * Get the average time admitted commands waited in the queue, commands admitted immediately count as 0
+	 * 
+	 * @param unit
+	 * 		The unit to return the wait time in
+	 * @return
+	 * 		The average wait time in the given unit
+	 */
+	public long getAverageWaitTime(TimeUnit unit){
+		if(this.admitted == 0){
+			return 0;
+		}
+		return unit.convert(this.totalWaitNanos / this.admitted, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Get the longest time an admitted command waited in the queue
+	 * 
+	 * @param unit
+	 * 		The unit to return the wait time in
+	 * @return
+	 * 		The maximum wait time in the given unit
+	 */
+	public long getMaxWaitTime(TimeUnit unit){
+		return unit.convert(this.maxWaitNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	@Override
+	public String toString(){
+		return "AdmissionStatistics[running=" + this.running + "/" + (this.maxConcurrent > 0 ? this.maxConcurrent : "unlimited")
+				+ ", queued=" + this.queued + ", peakQueued=" + this.peakQueued + ", admitted=" + this.admitted
+				+ ", rejected=" + this.rejected + ", maxWait=" + getMaxWaitTime(TimeUnit.MILLISECONDS) + "ms]";
+	}
+	
+}
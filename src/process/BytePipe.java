@@ -0,0 +1,110 @@
+package process;
+
+import java.io.InputStream;
+
+/**
+ * An in-memory pipe: bytes written by one thread are read as an InputStream by another.
+ * The buffer grows as needed, writes never block. Once the writer finishes, reads return -1 after the
+ * remaining bytes have been read. Closing the stream discards all buffered and future bytes.
+ *
+ * @author polle
+ *
+ */
+class BytePipe extends InputStream{
+
+	private byte[] buffer = new byte[1024];
+	private int start = 0;
+	private int end = 0;
+	private boolean finished = false;
+	private boolean closed = false;
+
+
+	/**
+	 * Add bytes to the pipe, they are dropped if the reader closed the stream
+	 */
+	synchronized void write(byte[] bytes, int offset, int length){
+		if(this.closed || length == 0){
+			return;
+		}
+		if(this.buffer.length - this.end < length){
+			int used = this.end - this.start;
+			// Compact in place if that makes enough room, otherwise grow
+			byte[] target = this.buffer.length - used >= length ? this.buffer : new byte[2 * (used + length)];
+			System.arraycopy(this.buffer, this.start, target, 0, used);
+			this.buffer = target;
+			this.start = 0;
+			this.end = used;
+		}
+		System.arraycopy(bytes, offset, this.buffer, this.end, length);
+		this.end += length;
+		this.notifyAll();
+	}
+
+
+	/**
+	 * Mark the end of the data, the reader gets -1 once it read everything
+	 */
+	synchronized void finish(){
+		this.finished = true;
+		this.notifyAll();
+	}
+
+
+	synchronized boolean isFinished(){
+		return this.finished;
+	}
+
+
+	@Override
+	public synchronized int read() {
+		byte[] single = new byte[1];
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+	}
+
+
+	@Override
+	public synchronized int read(byte[] bytes, int offset, int length) {
+		if(length == 0){
+			return 0;
+		}
+		boolean interrupted = false;
+		while(this.start == this.end && !this.finished && !this.closed){
+			try{
+				this.wait();
+			}catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		if(this.start == this.end){
+			return -1;
+		}
+		int read = Math.min(length, this.end - this.start);
+		System.arraycopy(this.buffer, this.start, bytes, offset, read);
+		this.start += read;
+		if(this.start == this.end){
+			this.start = 0;
+			this.end = 0;
+		}
+		return read;
+	}
+
+
+	@Override
+	public synchronized int available() {
+		return this.end - this.start;
+	}
+
+
+	@Override
+	public synchronized void close() {
+		this.closed = true;
+		this.start = 0;
+		this.end = 0;
+		this.buffer = new byte[0];
+		this.notifyAll();
+	}
+
+}
@@ -0,0 +1,185 @@
+package process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * A snapshot of the output captured from one stream of a SProcess: the history and the data that has not
+ * been read yet. Get one with SProcess.getNormalOutputCapture() or SProcess.getErrorOutputCapture().
+ *
+ * The bytes are not copied. Small output is kept in memory, output beyond the spill threshold of the SProcess
+ * lives in a temporary file (see SProcess.setSpillThreshold()). Either way it can be read at random positions,
+ * streamed or mapped, without building a String of the complete output.
+ *
+ * Positions are absolute offsets in the stream of the process. The snapshot covers the range
+ * [getStartPosition(), getEndPosition()), output captured later on is not part of it.
+ * The snapshot becomes invalid once the history policy drops its bytes or SProcess.releaseCapturedOutput() is called.
+ *
+ * @author polle
+ *
+ */
+public final class CapturedOutput {
+
+	private final OutputBuffer buffer;
+	private final long start;
+	private final long end;
+	private final boolean spilled;
+
+
+	CapturedOutput(OutputBuffer buffer){
+		synchronized(buffer.getLock()){
+			this.buffer = buffer;
+			this.start = buffer.getCaptureStart();
+			this.end = buffer.getCaptureEnd();
+			this.spilled = buffer.isSpilled();
+		}
+	}
+
+
+	/**
+	 * Get the number of bytes in this snapshot
+	 *
+	 * @return
+	 * 		The size in bytes
+	 */
+	public long size(){
+		return this.end - this.start;
+	}
+
+
+	/**
+	 * Check if the output was kept in a temporary file when this snapshot was taken
+	 *
+	 * @return
+	 * 		true if the output was spilled to disk, false if it is in memory
+	 */
+	public boolean isSpilled(){
+		return this.spilled;
+	}
+
+
+	/**
+	 * Get the stream position of the first byte of this snapshot.
+	 * This is not 0 if the history policy already dropped the start of the output.
+	 *
+	 * @return
+	 * 		The absolute position of the first byte
+	 */
+	public long getStartPosition(){
+		return this.start;
+	}
+
+
+	/**
+	 * Get the stream position after the last byte of this snapshot
+	 *
+	 * @return
+	 * 		The absolute position after the last byte
+	 */
+	public long getEndPosition(){
+		return this.end;
+	}
+
+
+	/**
+	 * Copy bytes starting at the given stream position into the destination buffer, as many as fit.
+	 *
+	 * @param position
+	 * 		The absolute stream position of the first byte to copy
+	 * @param destination
+	 * 		The buffer to copy into, its position is advanced by the number of bytes copied
+	 * @return
+	 * 		The number of bytes copied, -1 if the position is at or after the end of this snapshot
+	 * @throws IndexOutOfBoundsException
+	 * 		The position is before the start of this snapshot, or the bytes are no longer captured
+	 */
+	public int read(long position, ByteBuffer destination){
+		if(position >= this.end){
+			return -1;
+		}
+		if(position < this.start){
+			throw new IndexOutOfBoundsException("Position " + position + " is before the start of the captured output " + this.start);
+		}
+		// Buffer casts keep the Java 8 signatures when compiled on a later JDK
+		ByteBuffer limited = destination.duplicate();
+		((Buffer) limited).limit(limited.position() + (int) Math.min(destination.remaining(), this.end - position));
+		int read = this.buffer.read(position, limited);
+		((Buffer) destination).position(limited.position());
+		return read;
+	}
+
+
+	/**
+	 * Get a read-only view on all bytes of this snapshot. Spilled output is memory mapped, so the view does
+	 * not take heap space.
+	 *
+	 * @return
+	 * 		A read-only buffer holding the bytes of this snapshot
+	 * @throws UnsupportedOperationException
+	 * 		The snapshot is larger than 2GB, which does not fit a single buffer. Use read() or openStream() instead.
+	 */
+	public ByteBuffer map(){
+		return this.buffer.view(this.start, this.end);
+	}
+
+
+	/**
+	 * Open a stream reading the bytes of this snapshot from start to end
+	 *
+	 * @return
+	 * 		A new InputStream, it does not need to be closed
+	 */
+	public InputStream openStream(){
+		return new CaptureInputStream();
+	}
+
+
+	@Override
+	public String toString() {
+		return "CapturedOutput[" + this.start + ", " + this.end + (this.spilled ? ") on disk" : ") in memory");
+	}
+
+
+	private class CaptureInputStream extends InputStream{
+
+		private final byte[] single = new byte[1];
+		private long position = CapturedOutput.this.start;
+
+		@Override
+		public int read() throws IOException {
+			return read(this.single, 0, 1) < 0 ? -1 : this.single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if(length == 0){
+				return 0;
+			}
+			int read;
+			try{
+				read = CapturedOutput.this.read(this.position, ByteBuffer.wrap(bytes, offset, length));
+			}catch(IndexOutOfBoundsException | IllegalStateException e){
+				throw new IOException("Captured output is no longer available", e);
+			}
+			if(read > 0){
+				this.position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = Math.max(0, Math.min(n, CapturedOutput.this.end - this.position));
+			this.position += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(Integer.MAX_VALUE, CapturedOutput.this.end - this.position);
+		}
+	}
+
+}
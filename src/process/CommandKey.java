@@ -0,0 +1,70 @@
+package process;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Everything that determines the result of a SProcess: its command string, OS type, working directory,
+ * environment, stream redirects and the charset its output is decoded with. Used to recognize repeated executions of the same command (ResultCache,
+ * single-flight).
+ *
+ * @author polle
+ *
+ */
+final class CommandKey {
+
+	private final String command;
+	private final SProcessExecutor.OS osType;
+	private final Path workingDirectory;
+	private final Map<String, String> environment;
+	private final StreamRedirect inputRedirect;
+	private final StreamRedirect normalOutputRedirect;
+	private final StreamRedirect errorOutputRedirect;
+	private final Charset charset;
+	private final int hash;
+
+
+	CommandKey(SProcess command){
+		this.command = command.getCommand();
+		this.osType = command.getOSType();
+		this.workingDirectory = command.getWorkingDirectory();
+		this.environment = command.getEnvironment() == null ? null : new HashMap<>(command.getEnvironment());
+		this.inputRedirect = command.getInputRedirect();
+		this.normalOutputRedirect = command.getNormalOutputRedirect();
+		this.errorOutputRedirect = command.getErrorOutputRedirect();
+		this.charset = command.getCharset();
+		this.hash = Objects.hash(this.command, this.osType, this.workingDirectory, this.environment,
+				this.inputRedirect, this.normalOutputRedirect, this.errorOutputRedirect, this.charset);
+	}
+
+
+	String getCommand(){
+		return this.command;
+	}
+
+
+	@Override
+	public boolean equals(Object other){
+		if(!(other instanceof CommandKey)){
+			return false;
+		}
+		CommandKey key = (CommandKey) other;
+		return this.hash == key.hash && this.command.equals(key.command) && this.osType == key.osType
+				&& Objects.equals(this.workingDirectory, key.workingDirectory)
+				&& Objects.equals(this.environment, key.environment)
+				&& this.inputRedirect.equals(key.inputRedirect)
+				&& this.normalOutputRedirect.equals(key.normalOutputRedirect)
+				&& this.errorOutputRedirect.equals(key.errorOutputRedirect)
+				&& Objects.equals(this.charset, key.charset);
+	}
+
+
+	@Override
+	public int hashCode(){
+		return this.hash;
+	}
+
+}
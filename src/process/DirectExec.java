@@ -0,0 +1,91 @@
+package process;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides if a UNIX command can be executed without a shell, and splits it into its arguments.
+ *
+ * A command qualifies when it is a plain list of words: only letters, digits and the characters _@%+=:,./-
+ * separated by spaces or tabs, and a first word that is no variable assignment and no shell builtin or keyword.
+ * Anything that needs the shell (quotes, escapes, variables, globs, redirects, pipes, command lists,
+ * comments, tilde expansion) makes it run through /bin/sh as usual.
+ *
+ * Parse results are kept in a small LRU cache per command String, so repeated commands are only parsed once.
+ *
+ * @author polle
+ *
+ */
+final class DirectExec {
+
+	private static final int CACHE_SIZE = 1024;
+
+	// Cached result for commands that need a shell
+	private static final String[] NEEDS_SHELL = new String[0];
+
+	// Builtins and keywords of POSIX sh (and common extensions) that have no or a different binary
+	private static final Set<String> SHELL_WORDS = new HashSet<>(Arrays.asList(
+			"!", ".", ":", "[", "[[", "{", "}", "alias", "bg", "break", "case", "cd", "command", "continue",
+			"do", "done", "echo", "elif", "else", "esac", "eval", "exec", "exit", "export", "false", "fc", "fg",
+			"fi", "for", "function", "getopts", "hash", "if", "in", "jobs", "kill", "local", "printf", "pwd",
+			"read", "readonly", "return", "select", "set", "shift", "source", "test", "then", "time", "times",
+			"trap", "true", "type", "ulimit", "umask", "unalias", "unset", "until", "wait", "while"));
+
+	private static final Map<String, String[]> cache = Collections.synchronizedMap(
+			new LinkedHashMap<String, String[]>(CACHE_SIZE * 4 / 3 + 1, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+					return this.size() > CACHE_SIZE;
+				}
+			});
+
+
+	private DirectExec(){
+	}
+
+
+	/**
+	 * Get the arguments to execute the given command directly
+	 *
+	 * @return
+	 * 		The arguments, the program first, or null if the command needs a shell.
+	 * 		The array is shared and must not be modified.
+	 */
+	static String[] argv(String command){
+		String[] argv = cache.get(command);
+		if(argv == null){
+			argv = parse(command);
+			cache.put(command, argv);
+		}
+		return argv == NEEDS_SHELL ? null : argv;
+	}
+
+
+	private static String[] parse(String command){
+		String[] words = command.trim().split("[ \t]+");
+		if(words.length == 0 || words[0].isEmpty() || words[0].indexOf('=') >= 0 || SHELL_WORDS.contains(words[0])){
+			return NEEDS_SHELL;
+		}
+		for(String word : words){
+			for(int i = 0; i < word.length(); i++){
+				if(!isPlain(word.charAt(i))){
+					return NEEDS_SHELL;
+				}
+			}
+		}
+		return words;
+	}
+
+
+	private static boolean isPlain(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| "_@%+=:,./-".indexOf(c) >= 0;
+	}
+
+}
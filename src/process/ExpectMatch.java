@@ -0,0 +1,153 @@
+package process;
+
+/**
+ * The outcome of waiting for patterns in the output of a process, see SProcess.expectNormal() and
+ * SProcess.expectError().
+ *
+ * On a match the output up to and including the matched text has been consumed, getBefore() holds the
+ * output that preceded the match. On a timeout or at the end of the stream the output that was scanned has
+ * been consumed, except for the most recent output that may still be the start of a match.
+ *
+ * @author polle
+ *
+ */
+public final class ExpectMatch {
+
+	private final RESULT result;
+	private final int patternIndex;
+	private final ExpectPattern pattern;
+	private final String before;
+	private final String[] groups;
+
+
+	private ExpectMatch(RESULT result, int patternIndex, ExpectPattern pattern, String before, String[] groups){
+		this.result = result;
+		this.patternIndex = patternIndex;
+		this.pattern = pattern;
+		this.before = before;
+		this.groups = groups;
+	}
+
+
+	static ExpectMatch matched(int patternIndex, ExpectPattern pattern, String before, String[] groups){
+		return new ExpectMatch(RESULT.MATCHED, patternIndex, pattern, before, groups);
+	}
+
+
+	static ExpectMatch timeout(){
+		return new ExpectMatch(RESULT.TIMEOUT, -1, null, null, null);
+	}
+
+
+	static ExpectMatch closed(){
+		return new ExpectMatch(RESULT.CLOSED, -1, null, null, null);
+	}
+
+
+	/**
+	 * @return
+	 * 		MATCHED: one of the patterns matched
+	 * 		TIMEOUT: none of the patterns matched before the timeout expired
+	 * 		CLOSED: the stream ended without any of the patterns matching
+	 */
+	public RESULT getResult(){
+		return this.result;
+	}
+
+
+	/**
+	 * @return
+	 * 		true if one of the patterns matched
+	 */
+	public boolean isMatched(){
+		return this.result == RESULT.MATCHED;
+	}
+
+
+	/**
+	 * Get the position of the matching pattern in the patterns given to expect.
+	 * When several patterns match, the one whose match ends first in the output wins, then the first one given.
+	 *
+	 * @return
+	 * 		The index of the matching pattern, -1 if nothing matched
+	 */
+	public int getPatternIndex(){
+		return this.patternIndex;
+	}
+
+
+	/**
+	 * @return
+	 * 		The matching pattern, null if nothing matched
+	 */
+	public ExpectPattern getPattern(){
+		return this.pattern;
+	}
+
+
+	/**
+	 * @return
+	 * 		The matched text, null if nothing matched
+	 */
+	public String getMatch(){
+		return group(0);
+	}
+
+
+	/**
+	 * Get a capturing group of a regex match, group 0 is the whole match
+	 *
+	 * @param group
+	 * 		The index of the group
+	 * @return
+	 * 		The text of the group, null if nothing matched or the group did not participate in the match
+	 */
+	public String group(int group){
+		if(this.groups == null){
+			return null;
+		}
+		if(group < 0 || group >= this.groups.length){
+			throw new IndexOutOfBoundsException("No group " + group + " in " + this.pattern);
+		}
+		return this.groups[group];
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of capturing groups of the match, not counting group 0
+	 */
+	public int groupCount(){
+		return this.groups == null ? 0 : this.groups.length - 1;
+	}
+
+
+	/**
+	 * Get the output consumed before the matched text, since expect was called. Output that was consumed while
+	 * scanning is only included as far as it is kept by the history policy of the SProcess.
+	 *
+	 * @return
+	 * 		The output before the matched text, null if nothing matched
+	 */
+	public String getBefore(){
+		return this.before;
+	}
+
+
+	@Override
+	public String toString(){
+		if(this.result != RESULT.MATCHED){
+			return "ExpectMatch[" + this.result + "]";
+		}
+		return "ExpectMatch[" + this.pattern + ", match=\"" + getMatch() + "\"]";
+	}
+
+
+	/**
+	 * This enum represents the possible outcomes of waiting for patterns.
+	 */
+	public enum RESULT{
+		MATCHED, TIMEOUT, CLOSED;
+	}
+
+}
@@ -0,0 +1,106 @@
+package process;
+
+import java.util.regex.Pattern;
+
+/**
+ * A pattern to wait for in the output of a process, see SProcess.expectNormal() and SProcess.expectError().
+ *
+ * Available patterns:
+ * 		- literal(text): the exact text, all literals of one expect call are matched together in a single pass
+ * 		- regex(pattern): a regular expression, matched against a sliding window of the most recent output
+ * 		  (see SProcess.setExpectWindow()), so a match can not be longer than the window
+ * 		  ^ matches at the start of the stream, $ at the end of the output received so far
+ *
+ * @author polle
+ *
+ */
+public final class ExpectPattern {
+
+	private final String literal;
+	private final Pattern regex;
+
+
+	private ExpectPattern(String literal, Pattern regex){
+		this.literal = literal;
+		this.regex = regex;
+	}
+
+
+	/**
+	 * Match the exact given text
+	 *
+	 * @param text
+	 * 		The text to wait for, can not be empty
+	 * @return
+	 * 		A literal pattern
+	 */
+	public static ExpectPattern literal(String text){
+		if(text == null || text.isEmpty()){
+			throw new IllegalArgumentException("A literal pattern can not be empty");
+		}
+		return new ExpectPattern(text, null);
+	}
+
+
+	/**
+	 * Match the given regular expression
+	 *
+	 * @param regex
+	 * 		The regular expression to wait for, see java.util.regex.Pattern
+	 * @return
+	 * 		A regex pattern
+	 */
+	public static ExpectPattern regex(String regex){
+		return regex(Pattern.compile(regex));
+	}
+
+
+	/**
+	 * Match the given compiled regular expression
+	 *
+	 * @param regex
+	 * 		The regular expression to wait for
+	 * @return
+	 * 		A regex pattern
+	 */
+	public static ExpectPattern regex(Pattern regex){
+		if(regex == null){
+			throw new IllegalArgumentException("A regex pattern can not be null");
+		}
+		return new ExpectPattern(null, regex);
+	}
+
+
+	/**
+	 * @return
+	 * 		true if this pattern matches an exact text, false if it is a regular expression
+	 */
+	public boolean isLiteral(){
+		return this.literal != null;
+	}
+
+
+	/**
+	 * @return
+	 * 		The text of a literal pattern, null for a regex pattern
+	 */
+	public String getLiteral(){
+		return this.literal;
+	}
+
+
+	/**
+	 * @return
+	 * 		The regular expression of a regex pattern, null for a literal pattern
+	 */
+	public Pattern getRegex(){
+		return this.regex;
+	}
+
+
+	@Override
+	public String toString(){
+		return this.literal != null ? "literal \"" + this.literal + "\"" : "regex /" + this.regex.pattern() + "/";
+	}
+
+}
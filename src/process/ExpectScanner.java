@@ -0,0 +1,463 @@
+package process;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * Matches a set of ExpectPatterns against a stream, chunk by chunk, decoding every byte once.
+ *
+ * The bytes are decoded incrementally into a window of the most recent characters. Literals are matched
+ * together by an Aho-Corasick automaton that keeps its state between chunks, so only new characters are
+ * scanned. Regexes are matched against the window; a regex that failed without reaching the end of the
+ * window (Matcher.hitEnd()) can not match anything starting before that end, so its next search starts
+ * there. The window drops its oldest characters beyond the configured size.
+ *
+ * The window remembers how many characters and bytes every decoded chunk has, and its bytes, so the window
+ * slides by whole chunks and stream positions are exact. Only the part of a chunk before a match is decoded
+ * again to find the stream position of the match, which stays exact when malformed input was replaced.
+ *
+ * Once the window slid, it keeps the character before its oldest chunk in front of it. Regexes do not search
+ * from that character, but ^, \b and lookbehinds see it, so ^ only matches at the real start of the stream
+ * (or of a line in MULTILINE mode). $ matches at the end of the output received so far.
+ *
+ * @author polle
+ *
+ */
+final class ExpectScanner {
+
+	private static final int ASCII = 128;
+
+	// Number of characters kept in the window between chunks
+	private final int keep;
+
+	private final CharsetDecoder decoder;
+	// The most recent characters, the regexes match against it through a CharSequence view
+	private char[] window = new char[1024];
+	private int windowLength = 0;
+	private final CharSequence windowChars = new WindowChars();
+	// Stream position of the first character of the window
+	private long windowStart;
+	// 1 once the window slid: window[0] is then the character before the oldest chunk, only kept as context
+	private int lead = 0;
+	// Characters and bytes of the decoded chunks in the window, oldest first
+	private final ArrayDeque<Integer> chunkChars = new ArrayDeque<>();
+	private final ArrayDeque<Long> chunkBytes = new ArrayDeque<>();
+	// The bytes of the decoded chunks in the window, decoded again to find the stream position of a match
+	private byte[] windowBytes = new byte[1024];
+	private int windowBytesLength = 0;
+	private final CharsetDecoder positionDecoder;
+	// Bytes of an incomplete character at the end of the previous chunk
+	private byte[] carry = new byte[0];
+
+	// The Aho-Corasick automaton of the literals. Scanning uses flat tables indexed by node id.
+	private final List<Node> nodes = new ArrayList<>();
+	private final Node root = newNode();
+	// Row of the next node for every row and ASCII character, failure links included. A row is a node id times
+	// ASCII, a negative entry ~row means that the next node ends a literal.
+	private int[] asciiNext;
+	private int[] matches;
+	private int[] matchLengths;
+	// Row of the current node
+	private int state = 0;
+
+	private final List<Regex> regexes = new ArrayList<>();
+
+
+	ExpectScanner(List<ExpectPattern> patterns, Charset charset, int windowSize, long start){
+		this.windowStart = start;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.positionDecoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		int longest = 0;
+		for(int i = 0; i < patterns.size(); i++){
+			ExpectPattern pattern = patterns.get(i);
+			if(pattern.isLiteral()){
+				addLiteral(pattern.getLiteral(), i);
+				longest = Math.max(longest, pattern.getLiteral().length());
+			}else{
+				this.regexes.add(new Regex(i, pattern.getRegex().matcher(this.windowChars)));
+			}
+		}
+		// Literals only need the characters of a partial match, regexes need the whole window
+		this.keep = this.regexes.isEmpty() ? longest : Math.max(windowSize, longest);
+		buildFailureLinks();
+	}
+
+
+	private static int row(Node node){
+		return node.id * ASCII;
+	}
+
+
+	private Node newNode(){
+		Node node = new Node(this.nodes.size());
+		this.nodes.add(node);
+		return node;
+	}
+
+
+	private void addLiteral(String literal, int index){
+		Node node = this.root;
+		for(int i = 0; i < literal.length(); i++){
+			node = node.next.computeIfAbsent(literal.charAt(i), c -> newNode());
+		}
+		// The first pattern given wins when two literals are equal
+		if(node.match < 0){
+			node.match = index;
+			node.matchLength = literal.length();
+		}
+	}
+
+
+	/**
+	 * Link every node to the node of its longest proper suffix, breadth first, and let every node report the
+	 * first pattern of all literals ending at it, its own and those of its suffixes.
+	 * ASCII transitions are resolved up front, so scanning ASCII output never follows failure links.
+	 */
+	private void buildFailureLinks(){
+		this.asciiNext = new int[this.nodes.size() * ASCII];
+		for(char c = 0; c < ASCII; c++){
+			this.asciiNext[c] = row(this.root.next.getOrDefault(c, this.root));
+		}
+		ArrayDeque<Node> todo = new ArrayDeque<>();
+		for(Node child : this.root.next.values()){
+			child.fail = this.root;
+			todo.add(child);
+		}
+		while(!todo.isEmpty()){
+			Node node = todo.poll();
+			// The failure node is less deep, so its transitions are already known
+			for(char c = 0; c < ASCII; c++){
+				Node next = node.next.get(c);
+				this.asciiNext[node.id * ASCII + c] = next != null ? row(next) : this.asciiNext[node.fail.id * ASCII + c];
+			}
+			for(Map.Entry<Character, Node> edge : node.next.entrySet()){
+				Node child = edge.getValue();
+				Node fail = node.fail;
+				while(fail != this.root && !fail.next.containsKey(edge.getKey())){
+					fail = fail.fail;
+				}
+				Node suffix = fail.next.get(edge.getKey());
+				child.fail = suffix != null && suffix != child ? suffix : this.root;
+				// All literals ending here end at the same position, the first pattern given wins
+				if(child.fail.match >= 0 && (child.match < 0 || child.fail.match < child.match)){
+					child.match = child.fail.match;
+					child.matchLength = child.fail.matchLength;
+				}
+				todo.add(child);
+			}
+		}
+		// Only valid once the matches of all nodes are known
+		for(int i = 0; i < this.asciiNext.length; i++){
+			int row = this.asciiNext[i];
+			if(row >= 0 && this.nodes.get(row / ASCII).match >= 0){
+				this.asciiNext[i] = ~row;
+			}
+		}
+		this.matches = new int[this.nodes.size()];
+		this.matchLengths = new int[this.nodes.size()];
+		for(Node node : this.nodes){
+			this.matches[node.id] = node.match;
+			this.matchLengths[node.id] = node.matchLength;
+		}
+	}
+
+
+	/**
+	 * Scan the next chunk of the stream
+	 *
+	 * @param bytes
+	 * 		The new bytes, consumed by this call
+	 * @param endOfInput
+	 * 		true if the stream ends after these bytes
+	 * @return
+	 * 		The match that ends first, null if nothing matched yet
+	 */
+	Found feed(ByteBuffer bytes, boolean endOfInput){
+		int scanFrom = this.windowLength;
+		decode(bytes, endOfInput);
+
+		Found found = null;
+		if(this.root.next.size() > 0){
+			char[] chars = this.window;
+			int[] asciiNext = this.asciiNext;
+			int end = this.windowLength;
+			int row = this.state;
+			for(int i = scanFrom; i < end; i++){
+				char c = chars[i];
+				if(c < ASCII){
+					row = asciiNext[row + c];
+					if(row >= 0){
+						continue;
+					}
+					row = ~row;
+				}else{
+					row = step(row / ASCII, c) * ASCII;
+				}
+				int id = row / ASCII;
+				if(this.matches[id] >= 0){
+					found = new Found(this.matches[id], i + 1 - this.matchLengths[id], i + 1, null);
+					break;
+				}
+			}
+			this.state = row;
+		}
+		for(Regex regex : this.regexes){
+			Matcher matcher = regex.matcher;
+			matcher.reset(this.windowChars);
+			matcher.region(Math.max(Math.max(regex.from, this.lead), this.windowLength - this.keep), this.windowLength);
+			matcher.useTransparentBounds(true);
+			matcher.useAnchoringBounds(false);
+			if(matcher.find()){
+				if(found == null || matcher.end() < found.end || (matcher.end() == found.end && regex.index < found.index)){
+					String[] groups = new String[matcher.groupCount() + 1];
+					for(int g = 0; g < groups.length; g++){
+						groups[g] = matcher.group(g);
+					}
+					found = new Found(regex.index, matcher.start(), matcher.end(), groups);
+				}
+			}else if(!matcher.hitEnd()){
+				regex.from = this.windowLength;
+			}
+		}
+		if(found != null){
+			if(found.groups == null){
+				found.groups = new String[]{new String(this.window, found.start, found.end - found.start)};
+			}
+			found.startPosition = position(found.start);
+			found.endPosition = position(found.end);
+			return found;
+		}
+		slide();
+		return null;
+	}
+
+
+	/**
+	 * Follow the transition of a non ASCII character, through the failure links
+	 */
+	private int step(int id, char c){
+		Node node = this.nodes.get(id);
+		while(true){
+			Node next = node.next.get(c);
+			if(next != null){
+				return next.id;
+			}
+			if(node == this.root){
+				return this.root.id;
+			}
+			node = node.fail;
+		}
+	}
+
+
+	/**
+	 * Decode the bytes and append them to the window
+	 */
+	private void decode(ByteBuffer bytes, boolean endOfInput){
+		ByteBuffer in = bytes;
+		if(this.carry.length > 0){
+			in = ByteBuffer.allocate(this.carry.length + bytes.remaining());
+			in.put(this.carry).put(bytes);
+			((Buffer) in).flip();
+		}
+		int capacity = this.windowLength + (int) (in.remaining() * (double) this.decoder.maxCharsPerByte()) + 2;
+		if(this.window.length < capacity){
+			this.window = Arrays.copyOf(this.window, Math.max(capacity, this.window.length * 2));
+		}
+		CharBuffer out = CharBuffer.wrap(this.window, this.windowLength, this.window.length - this.windowLength);
+		ByteBuffer decoded = in.duplicate();
+		this.decoder.decode(in, out, endOfInput);
+		if(endOfInput){
+			this.decoder.flush(out);
+		}
+		int length = out.position() - this.windowLength;
+		this.windowLength = out.position();
+		int consumed = in.position() - decoded.position();
+		this.carry = new byte[in.remaining()];
+		in.get(this.carry);
+		if(length > 0){
+			this.chunkChars.add(length);
+			this.chunkBytes.add((long) consumed);
+		}else if(!this.chunkBytes.isEmpty()){
+			this.chunkBytes.add(this.chunkBytes.pollLast() + consumed);
+		}else{
+			this.windowStart += consumed;
+			return;
+		}
+		if(this.windowBytes.length < this.windowBytesLength + consumed){
+			this.windowBytes = Arrays.copyOf(this.windowBytes, Math.max(this.windowBytesLength + consumed, this.windowBytes.length * 2));
+		}
+		decoded.get(this.windowBytes, this.windowBytesLength, consumed);
+		this.windowBytesLength += consumed;
+	}
+
+
+	/**
+	 * Drop the oldest chunks that are not needed to keep the characters to keep. The window is only compacted
+	 * once that frees at least as many characters as it keeps, so moving the kept characters costs constant
+	 * time per scanned character.
+	 */
+	private void slide(){
+		int drop = 0;
+		int chunks = 0;
+		Iterator<Integer> sizes = this.chunkChars.iterator();
+		while(sizes.hasNext()){
+			int size = sizes.next();
+			if(this.windowLength - this.lead - drop - size < this.keep){
+				break;
+			}
+			drop += size;
+			chunks++;
+		}
+		if(chunks == 0 || (drop < this.keep && drop < this.windowLength / 2)){
+			return;
+		}
+		int dropBytes = 0;
+		for(int i = 0; i < chunks; i++){
+			this.chunkChars.poll();
+			long bytes = this.chunkBytes.poll();
+			this.windowStart += bytes;
+			dropBytes += bytes;
+		}
+		// The last dropped character stays in front of the window as context
+		int from = this.lead + drop - 1;
+		System.arraycopy(this.window, from, this.window, 0, this.windowLength - from);
+		this.windowLength -= from;
+		this.lead = 1;
+		System.arraycopy(this.windowBytes, dropBytes, this.windowBytes, 0, this.windowBytesLength - dropBytes);
+		this.windowBytesLength -= dropBytes;
+		for(Regex regex : this.regexes){
+			regex.from = Math.max(this.lead, regex.from - from);
+		}
+	}
+
+
+	/**
+	 * Get the stream position of the oldest character still in the window, the output before it can no longer
+	 * be part of a match
+	 */
+	long getWindowStart(){
+		return this.windowStart;
+	}
+
+
+	/**
+	 * Get the stream position of the character at the given window index
+	 */
+	private long position(int index){
+		int offset = 0;
+		int length = 0;
+		int start = this.lead;
+		Iterator<Long> bytes = this.chunkBytes.iterator();
+		for(int size : this.chunkChars){
+			length = (int) (long) bytes.next();
+			if(index < start + size){
+				break;
+			}
+			start += size;
+			offset += length;
+		}
+		if(index == start){
+			return this.windowStart + offset;
+		}
+		// Decode the chunk again up to the character, the full output buffer stops the decoder right before it
+		ByteBuffer in = ByteBuffer.wrap(this.windowBytes, offset, length);
+		this.positionDecoder.reset();
+		this.positionDecoder.decode(in, CharBuffer.allocate(index - start), true);
+		return this.windowStart + in.position();
+	}
+
+
+	/**
+	 * The characters of the window, without copying them
+	 */
+	private final class WindowChars implements CharSequence{
+
+		@Override
+		public int length() {
+			return ExpectScanner.this.windowLength;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return ExpectScanner.this.window[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(ExpectScanner.this.window, start, end - start);
+		}
+
+		@Override
+		public String toString(){
+			return new String(ExpectScanner.this.window, 0, ExpectScanner.this.windowLength);
+		}
+	}
+
+
+	/**
+	 * A node of the Aho-Corasick automaton
+	 */
+	private static final class Node{
+		private final int id;
+		private final Map<Character, Node> next = new HashMap<>();
+		private Node fail;
+		// The first pattern of the literals ending at this node, -1 if none
+		private int match = -1;
+		private int matchLength;
+
+		Node(int id){
+			this.id = id;
+		}
+	}
+
+
+	private static final class Regex{
+		private final int index;
+		private final Matcher matcher;
+		// Window index where the next search starts
+		private int from = 0;
+
+		Regex(int index, Matcher matcher){
+			this.index = index;
+			this.matcher = matcher;
+		}
+	}
+
+
+	/**
+	 * A match in the stream
+	 */
+	static final class Found{
+		final int index;
+		final int start;
+		final int end;
+		String[] groups;
+		long startPosition;
+		long endPosition;
+
+		Found(int index, int start, int end, String[] groups){
+			this.index = index;
+			this.start = start;
+			this.end = end;
+			this.groups = groups;
+		}
+	}
+
+}
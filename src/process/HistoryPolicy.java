@@ -0,0 +1,121 @@
+package process;
+
+/**
+ * Decides how much of the output that has already been read from a SProcess is kept as history.
+ *
+ * Available policies:
+ * 		- unbounded(): keep everything (default)
+ * 		- lastBytes(n): keep only the last n bytes
+ * 		- lastLines(n): keep only the last n lines
+ * 		- disabled(): keep nothing
+ *
+ * @author polle
+ *
+ */
+public final class HistoryPolicy {
+
+	private static final HistoryPolicy UNBOUNDED = new HistoryPolicy(MODE.UNBOUNDED, 0);
+	private static final HistoryPolicy DISABLED = new HistoryPolicy(MODE.DISABLED, 0);
+
+	private final MODE mode;
+	private final int limit;
+
+
+	private HistoryPolicy(MODE mode, int limit){
+		this.mode = mode;
+		this.limit = limit;
+	}
+
+
+	/**
+	 * Keep all output ever read as history
+	 *
+	 * @return
+	 * 		The unbounded history policy
+	 */
+	public static HistoryPolicy unbounded(){
+		return UNBOUNDED;
+	}
+
+
+	/**
+	 * Keep no history at all
+	 *
+	 * @return
+	 * 		The disabled history policy
+	 */
+	public static HistoryPolicy disabled(){
+		return DISABLED;
+	}
+
+
+	/**
+	 * Keep only the most recent bytes as history.
+	 * NOTE: The history may start in the middle of a multi-byte character.
+	 *
+	 * @param bytes
+	 * 		The maximum number of bytes to keep, must be positive
+	 * @return
+	 * 		A history policy keeping at most the given number of bytes
+	 */
+	public static HistoryPolicy lastBytes(int bytes){
+		if(bytes <= 0){
+			throw new IllegalArgumentException("History size must be positive: " + bytes);
+		}
+		return new HistoryPolicy(MODE.LAST_BYTES, bytes);
+	}
+
+
+	/**
+	 * Keep only the most recent lines as history. Lines are terminated by '\n', an unterminated
+	 * last line counts as a line.
+	 *
+	 * @param lines
+	 * 		The maximum number of lines to keep, must be positive
+	 * @return
+	 * 		A history policy keeping at most the given number of lines
+	 */
+	public static HistoryPolicy lastLines(int lines){
+		if(lines <= 0){
+			throw new IllegalArgumentException("History size must be positive: " + lines);
+		}
+		return new HistoryPolicy(MODE.LAST_LINES, lines);
+	}
+
+
+	/**
+	 * Get the mode of this policy
+	 *
+	 * @return
+	 * 		The mode of this policy
+	 */
+	public MODE getMode(){
+		return this.mode;
+	}
+
+
+	/**
+	 * Get the limit of this policy
+	 *
+	 * @return
+	 * 		The number of bytes or lines kept, 0 for the unbounded and disabled policies
+	 */
+	public int getLimit(){
+		return this.limit;
+	}
+
+
+	@Override
+	public String toString(){
+		return this.limit == 0 ? this.mode.toString() : this.mode + "(" + this.limit + ")";
+	}
+
+
+	/**
+	 * This enum represents the possible history modes.
+	 */
+	public enum MODE{
+		UNBOUNDED, LAST_BYTES, LAST_LINES, DISABLED;
+	}
+
+}
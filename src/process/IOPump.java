@@ -0,0 +1,197 @@
+package process;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads the stdOut and stdError of many processes with a small fixed number of worker threads, instead of
+ * a blocking reader thread per stream. Enable it with SProcessExecutor.setIOPump().
+ *
+ * Java can not select on process streams, so every worker polls its streams with InputStream.available()
+ * and only reads what is available. A worker that finds data polls again right away, a worker without
+ * data backs off exponentially up to a maximum interval, and a worker without streams parks until a
+ * stream is registered. Idle processes thus only cost a cheap check per interval.
+ *
+ * Once a process has exited, the end of its streams is read by a blocking task on the I/O executor of the
+ * SProcess, so a stream held open by a child of the process never blocks a worker.
+ *
+ * @author polle
+ *
+ */
+public final class IOPump {
+
+	private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long DEFAULT_MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final Worker[] workers;
+	private final long maxBackoffNanos;
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile boolean shutdown = false;
+
+
+	/**
+	 * Create and start a pump with the given number of worker threads and the default maximum
+	 * polling interval of 10 milliseconds.
+	 *
+	 * @param workers
+	 * 		The number of worker threads, at least 1
+	 */
+	public IOPump(int workers){
+		this(workers, DEFAULT_MAX_BACKOFF_NANOS, TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * Create and start a pump with the given number of worker threads.
+	 *
+	 * @param workers
+	 * 		The number of worker threads, at least 1
+	 * @param maxInterval
+	 * 		The longest time an idle stream goes unchecked, this bounds the latency of new output
+	 * @param unit
+	 * 		The unit of the maxInterval argument
+	 */
+	public IOPump(int workers, long maxInterval, TimeUnit unit){
+		if(workers < 1){
+			throw new IllegalArgumentException("An IOPump needs at least one worker: " + workers);
+		}
+		this.maxBackoffNanos = Math.max(MIN_BACKOFF_NANOS, unit.toNanos(maxInterval));
+		this.workers = new Worker[workers];
+		for(int i = 0; i < workers; i++){
+			this.workers[i] = new Worker();
+			Thread thread = new Thread(this.workers[i], "SProcess-io-pump-" + (i + 1));
+			thread.setDaemon(true);
+			this.workers[i].thread = thread;
+			thread.start();
+		}
+	}
+
+
+	/**
+	 * Hand a stream to one of the workers
+	 *
+	 * @param drainer
+	 * 		The stream to read
+	 * @param fallback
+	 * 		Executor for the blocking read at the end of the stream, and for the stream itself if the pump is shut down
+	 */
+	void register(StreamDrainer drainer, Executor fallback){
+		if(this.shutdown){
+			fallback.execute(drainer);
+			return;
+		}
+		Worker worker = this.workers[Math.floorMod(this.next.getAndIncrement(), this.workers.length)];
+		Registration registration = new Registration(drainer, fallback);
+		worker.incoming.add(registration);
+		LockSupport.unpark(worker.thread);
+		if(this.shutdown && worker.incoming.remove(registration)){
+			// Shut down concurrently, the worker may no longer look at its queue
+			fallback.execute(drainer);
+		}
+	}
+
+
+	/**
+	 * Get the number of streams currently read by this pump
+	 *
+	 * @return
+	 * 		The number of registered streams
+	 */
+	public int getStreamCount(){
+		int count = 0;
+		for(Worker worker : this.workers){
+			count += worker.count;
+		}
+		return count;
+	}
+
+
+	/**
+	 * Stop the workers. Streams that are still open are handed to blocking tasks on their fallback executor.
+	 */
+	public void shutdown(){
+		this.shutdown = true;
+		for(Worker worker : this.workers){
+			LockSupport.unpark(worker.thread);
+		}
+	}
+
+
+	private static class Registration{
+		final StreamDrainer drainer;
+		final Executor fallback;
+
+		Registration(StreamDrainer drainer, Executor fallback){
+			this.drainer = drainer;
+			this.fallback = fallback;
+		}
+	}
+
+
+	private class Worker implements Runnable{
+
+		final ConcurrentLinkedQueue<Registration> incoming = new ConcurrentLinkedQueue<>();
+		final List<Registration> streams = new ArrayList<>();
+		// Large enough to empty a full OS pipe buffer in one read
+		final byte[] buffer = new byte[64 * 1024];
+		volatile int count = 0;
+		Thread thread;
+
+		@Override
+		public void run() {
+			long backoff = MIN_BACKOFF_NANOS;
+			while(!IOPump.this.shutdown){
+				Registration registration;
+				while((registration = this.incoming.poll()) != null){
+					this.streams.add(registration);
+					backoff = MIN_BACKOFF_NANOS;
+				}
+
+				boolean progress = false;
+				Iterator<Registration> iterator = this.streams.iterator();
+				while(iterator.hasNext()){
+					Registration stream = iterator.next();
+					int read = stream.drainer.pumpAvailable(this.buffer);
+					if(read > 0){
+						progress = true;
+					}else if(read < 0){
+						iterator.remove();
+					}else if(!stream.drainer.isSourceAlive()){
+						// Only the end of the stream is left, read it without blocking this worker
+						iterator.remove();
+						stream.fallback.execute(stream.drainer);
+					}
+				}
+				this.count = this.streams.size();
+
+				if(progress){
+					backoff = MIN_BACKOFF_NANOS;
+				}else if(this.streams.isEmpty() && this.incoming.isEmpty()){
+					backoff = MIN_BACKOFF_NANOS;
+					LockSupport.park(this);
+				}else{
+					LockSupport.parkNanos(this, backoff);
+					backoff = Math.min(backoff * 2, IOPump.this.maxBackoffNanos);
+				}
+			}
+
+			// Shut down, keep reading the remaining streams with blocking tasks
+			Registration registration;
+			while((registration = this.incoming.poll()) != null){
+				this.streams.add(registration);
+			}
+			for(Registration stream : this.streams){
+				stream.fallback.execute(stream.drainer);
+			}
+			this.streams.clear();
+			this.count = 0;
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package process;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the background I/O of SProcesses (stream readers and pipes), see
+ * SProcessExecutor.setIOThreadFactory().
+ *
+ * Every I/O task blocks on a process stream for the lifetime of the process, so the threads should be cheap.
+ * Virtual threads are the cheapest option, they are available from Java 21 on. The library itself targets
+ * Java 8, so they are looked up at runtime.
+ *
+ * @author polle
+ *
+ */
+public final class IOThreads {
+
+	private static final ThreadFactory PLATFORM = new PlatformThreadFactory();
+
+	private static final ThreadFactory VIRTUAL = lookupVirtualThreadFactory();
+
+
+	private IOThreads(){
+	}
+
+
+	/**
+	 * Get the default factory, it creates named daemon platform threads
+	 *
+	 * @return
+	 * 		The platform thread factory
+	 */
+	public static ThreadFactory platformThreads(){
+		return PLATFORM;
+	}
+
+
+	/**
+	 * Get a factory creating virtual threads
+	 *
+	 * @return
+	 * 		The virtual thread factory
+	 * @throws UnsupportedOperationException
+	 * 		The running JVM does not support virtual threads (Java 21 or later is required)
+	 */
+	public static ThreadFactory virtualThreads(){
+		if(VIRTUAL == null){
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running on "
+					+ System.getProperty("java.version"));
+		}
+		return VIRTUAL;
+	}
+
+
+	/**
+	 * Check if the running JVM supports virtual threads
+	 *
+	 * @return
+	 * 		true if virtualThreads() can be used
+	 */
+	public static boolean isVirtualThreadSupported(){
+		return VIRTUAL != null;
+	}
+
+
+	/**
+	 * Get an executor that starts every task on a new thread of the given factory
+	 */
+	static Executor executorOf(ThreadFactory factory){
+		return task -> factory.newThread(task).start();
+	}
+
+
+	/**
+	 * Thread.ofVirtual().name("SProcess-io-virtual-", 0).factory(), resolved reflectively.
+	 *
+	 * @return
+	 * 		The factory, null if virtual threads are not supported
+	 */
+	private static ThreadFactory lookupVirtualThreadFactory(){
+		try{
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = ofVirtual.invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "SProcess-io-virtual-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		}catch(ReflectiveOperationException | RuntimeException e){
+			return null;
+		}
+	}
+
+
+	private static class PlatformThreadFactory implements ThreadFactory{
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "SProcess-io-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
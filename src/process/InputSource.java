@@ -0,0 +1,231 @@
+package process;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/**
+ * A source of data that SProcess.feedStdIn() pumps into the stdIn of a process, in the background and in
+ * bulk, without holding the whole input in memory.
+ *
+ * Available sources:
+ * 		- fromStream(in): everything read from an InputStream
+ * 		- fromChannel(channel): everything read from a ReadableByteChannel
+ * 		- fromFile(path): the content of a file
+ * 		- fromChunks(generator): the chunks returned by a generator, until it returns null
+ *
+ * By default data is moved in chunks of 64KB and the stdIn of the process is closed once the source is
+ * exhausted, so the process sees the end of its input. The source itself is always closed at the end.
+ * NOTE: A file that is known before the process is started is fed cheaper by the OS, see StreamRedirect.fromFile().
+ *
+ * @author polle
+ *
+ */
+public final class InputSource {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final Opener opener;
+	private final String description;
+	private final int bufferSize;
+	private final boolean closeOnEOF;
+
+
+	private InputSource(Opener opener, String description, int bufferSize, boolean closeOnEOF){
+		this.opener = opener;
+		this.description = description;
+		this.bufferSize = bufferSize;
+		this.closeOnEOF = closeOnEOF;
+	}
+
+
+	/**
+	 * Feed everything read from the given stream
+	 *
+	 * @param in
+	 * 		The stream to read, it is closed once it is exhausted or feeding fails
+	 * @return
+	 * 		An input source reading the stream
+	 */
+	public static InputSource fromStream(InputStream in){
+		return new InputSource(() -> new Chunks(){
+			@Override
+			public ByteBuffer next(ByteBuffer buffer) throws IOException {
+				int read = in.read(buffer.array(), buffer.arrayOffset(), buffer.capacity());
+				if(read < 0){
+					return null;
+				}
+				((Buffer) buffer).limit(read);
+				return buffer;
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		}, "stream", DEFAULT_BUFFER_SIZE, true);
+	}
+
+
+	/**
+	 * Feed everything read from the given channel
+	 *
+	 * @param channel
+	 * 		The channel to read, it is closed once it is exhausted or feeding fails
+	 * @return
+	 * 		An input source reading the channel
+	 */
+	public static InputSource fromChannel(ReadableByteChannel channel){
+		return new InputSource(() -> channelChunks(channel), "channel", DEFAULT_BUFFER_SIZE, true);
+	}
+
+
+	/**
+	 * Feed the content of the given file, the file is opened when feeding starts
+	 *
+	 * @param file
+	 * 		The file to read
+	 * @return
+	 * 		An input source reading the file
+	 */
+	public static InputSource fromFile(Path file){
+		return new InputSource(() -> channelChunks(FileChannel.open(file, StandardOpenOption.READ)), file.toString(), DEFAULT_BUFFER_SIZE, true);
+	}
+
+
+	/**
+	 * Feed the chunks returned by the given generator, until it returns null.
+	 * Chunks are written from their position to their limit without being copied, a chunk must not be
+	 * changed by the generator until the next chunk is requested.
+	 *
+	 * @param generator
+	 * 		The generator of the chunks, called on the background thread feeding the process
+	 * @return
+	 * 		An input source feeding the generated chunks
+	 */
+	public static InputSource fromChunks(Supplier<ByteBuffer> generator){
+		return new InputSource(() -> new Chunks(){
+			@Override
+			public ByteBuffer next(ByteBuffer buffer) {
+				return generator.get();
+			}
+
+			@Override
+			public void close() {
+			}
+		}, "generator", DEFAULT_BUFFER_SIZE, true);
+	}
+
+
+	private static Chunks channelChunks(ReadableByteChannel channel){
+		return new Chunks(){
+			@Override
+			public ByteBuffer next(ByteBuffer buffer) throws IOException {
+				int read;
+				do{
+					read = channel.read(buffer);
+				}while(read == 0 && buffer.hasRemaining());
+				if(read < 0 && buffer.position() == 0){
+					return null;
+				}
+				((Buffer) buffer).flip();
+				return buffer;
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+
+
+	/**
+	 * Get a copy of this source that moves data in chunks of the given size
+	 *
+	 * @param bufferSize
+	 * 		The chunk size in bytes, 64KB by default
+	 * @return
+	 * 		The input source with the given buffer size
+	 */
+	public InputSource withBufferSize(int bufferSize){
+		if(bufferSize <= 0){
+			throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+		}
+		return new InputSource(this.opener, this.description, bufferSize, this.closeOnEOF);
+	}
+
+
+	/**
+	 * Get a copy of this source that leaves the stdIn of the process open when it is exhausted,
+	 * so more input can follow. Close it with SProcess.closeProcessStdIn() when done.
+	 *
+	 * @return
+	 * 		The input source that keeps stdIn open
+	 */
+	public InputSource keepOpen(){
+		return new InputSource(this.opener, this.description, this.bufferSize, false);
+	}
+
+
+	/**
+	 * @return
+	 * 		The chunk size in bytes
+	 */
+	public int getBufferSize(){
+		return this.bufferSize;
+	}
+
+
+	/**
+	 * @return
+	 * 		true if the stdIn of the process is closed once this source is exhausted
+	 */
+	public boolean isCloseOnEOF(){
+		return this.closeOnEOF;
+	}
+
+
+	/**
+	 * Open the source for reading, called on the feeding thread
+	 */
+	Chunks open() throws IOException{
+		return this.opener.open();
+	}
+
+
+	@Override
+	public String toString(){
+		return "InputSource[" + this.description + ", bufferSize=" + this.bufferSize + (this.closeOnEOF ? "" : ", keepOpen") + "]";
+	}
+
+
+	private interface Opener{
+		Chunks open() throws IOException;
+	}
+
+
+	/**
+	 * The data of an opened source, chunk by chunk
+	 */
+	interface Chunks extends Closeable{
+
+		/**
+		 * Get the next chunk of data
+		 *
+		 * @param buffer
+		 * 		An empty heap buffer of the buffer size that may be filled and returned
+		 * @return
+		 * 		The chunk to write from its position to its limit, null at the end of the data
+		 */
+		ByteBuffer next(ByteBuffer buffer) throws IOException;
+	}
+
+}
@@ -0,0 +1,157 @@
+package process;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, with a relative error of at most 1/16.
+ *
+ * Values are counted in buckets: every power of two range is split in 16 equal sub-buckets, so the
+ * histogram covers the full range of a long with 960 counters. Recording a value is a few shifts and an
+ * atomic increment, without allocation.
+ *
+ * @author polle
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+
+	/**
+	 * Record a duration
+	 *
+	 * @param nanos
+	 * 		The duration in nanoseconds, negative values are counted as 0
+	 */
+	public void record(long nanos){
+		long value = Math.max(0, nanos);
+		this.counts.incrementAndGet(bucket(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+		long current;
+		while(value > (current = this.max.get()) && !this.max.compareAndSet(current, value)){
+			// Retry, another thread raised the maximum
+		}
+	}
+
+
+	/**
+	 * Get the number of recorded durations
+	 *
+	 * @return
+	 * 		The number of recorded durations
+	 */
+	public long getCount(){
+		return this.count.get();
+	}
+
+
+	/**
+	 * Get the mean of the recorded durations
+	 *
+	 * @return
+	 * 		The mean in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getMean(){
+		long count = this.count.get();
+		return count == 0 ? 0 : this.sum.get() / count;
+	}
+
+
+	/**
+	 * Get the longest recorded duration
+	 *
+	 * @return
+	 * 		The maximum in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getMax(){
+		return this.max.get();
+	}
+
+
+	/**
+	 * Get a percentile of the recorded durations
+	 *
+	 * @param percentile
+	 * 		The percentile, between 0 and 100. For example 99 for the duration 99% of the recordings do not exceed.
+	 * @return
+	 * 		The percentile in nanoseconds (the upper bound of its bucket), 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile){
+		if(percentile < 0 || percentile > 100){
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+		}
+		long total = this.count.get();
+		if(total == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += this.counts.get(i);
+			if(seen >= rank){
+				return Math.min(upperBound(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+
+	/**
+	 * Forget all recorded durations. Recordings made concurrently may be partially kept.
+	 */
+	public void reset(){
+		for(int i = 0; i < BUCKETS; i++){
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+
+	private static int bucket(long value){
+		if(value < SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+
+	private static long upperBound(int bucket){
+		if(bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+
+	@Override
+	public String toString(){
+		return "count=" + getCount()
+				+ " mean=" + micros(getMean())
+				+ " p50=" + micros(getPercentile(50))
+				+ " p90=" + micros(getPercentile(90))
+				+ " p99=" + micros(getPercentile(99))
+				+ " max=" + micros(getMax());
+	}
+
+
+	private static String micros(long nanos){
+		return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+	}
+
+}
@@ -0,0 +1,23 @@
+package process;
+
+/**
+ * Receives the output of a SProcess stream one line (or record) at a time, see
+ * SProcess.addNormalLineListener() and SProcess.addErrorLineListener().
+ * 
+ * Listeners are called on the thread reading the stream, they should return quickly.
+ * 
+ * @author polle
+ *
+ */
+public interface LineListener {
+
+	/**
+	 * Called for every complete line. The last line of the stream is delivered when the stream is closed,
+	 * even if it is not terminated by the delimiter.
+	 * 
+	 * @param line
+	 * 		The line without its delimiter
+	 */
+	void onLine(String line);
+	
+}
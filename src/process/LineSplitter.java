@@ -0,0 +1,78 @@
+package process;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into lines on a delimiter and hands every line to a LineListener.
+ * Only the current, incomplete line is kept in memory.
+ * 
+ * @author polle
+ *
+ */
+class LineSplitter implements OutputListener {
+
+	private final LineListener listener;
+	private final byte[] delimiter;
+	private final byte last;
+	private final Charset charset;
+	
+	private byte[] line = new byte[256];
+	private int length = 0;
+	
+	
+	LineSplitter(LineListener listener, String delimiter, Charset charset){
+		if(delimiter == null || delimiter.isEmpty()){
+			throw new IllegalArgumentException("Line delimiter can not be empty");
+		}
+		this.listener = listener;
+		this.delimiter = delimiter.getBytes(charset);
+		this.last = this.delimiter[this.delimiter.length - 1];
+		this.charset = charset;
+	}
+	
+	
+	@Override
+	public void onOutput(byte[] data, int offset, int length) {
+		for(int i = offset; i < offset + length; i++){
+			byte b = data[i];
+			if(this.length == this.line.length){
+				this.line = Arrays.copyOf(this.line, this.line.length * 2);
+			}
+			this.line[this.length++] = b;
+			if(b == this.last && endsWithDelimiter()){
+				emit(this.length - this.delimiter.length);
+			}
+		}
+	}
+	
+	
+	@Override
+	public void onClose() {
+		if(this.length > 0){
+			emit(this.length);
+		}
+	}
+	
+	
+	private boolean endsWithDelimiter(){
+		if(this.length < this.delimiter.length){
+			return false;
+		}
+		int start = this.length - this.delimiter.length;
+		for(int i = 0; i < this.delimiter.length; i++){
+			if(this.line[start + i] != this.delimiter[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	private void emit(int lineLength){
+		String text = new String(this.line, 0, lineLength, this.charset);
+		this.length = 0;
+		this.listener.onLine(text);
+	}
+	
+}
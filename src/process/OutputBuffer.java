@@ -0,0 +1,750 @@
+package process;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the bytes a background reader has read from one process stream, both the data that has not been
+ * consumed yet and the history of consumed data.
+ *
+ * Positions are absolute offsets in the stream: [historyStart, cursor) is the history, [cursor, end) the
+ * unread data. Together they are the captured output.
+ *
+ * The captured output normally lives in a single byte array. Bytes are never modified once written, when the
+ * array has to grow or be compacted a new array is allocated. This makes appends amortized linear and lets
+ * views on the history be handed out without copying.
+ * With an unbounded history policy and a spill threshold, the captured output is moved to a temporary file
+ * once it grows beyond the threshold and all further output is appended to that file, so the heap use stays
+ * flat. Views on spilled output are memory mapped.
+ *
+ * Every append and the end of the stream are signalled on a lock object, which can be shared between the
+ * buffers of one SProcess so a single waiter can wait for data on any of its streams.
+ *
+ * Appended data is also pushed to the registered OutputListeners, outside of the lock. When the output is
+ * not retained, the data is only pushed to the listeners and nothing is kept in memory.
+ *
+ * @author polle
+ *
+ */
+class OutputBuffer {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Largest number of bytes decoded into a single String
+	private static final int MAX_STRING_BYTES = Integer.MAX_VALUE / 4;
+	// The largest array most JVMs can allocate
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+	// Spilled output is read in chunks of this size to be decoded or scanned
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final Logger logger = LoggerFactory.getLogger(OutputBuffer.class);
+
+	private final Object lock;
+	// Only used when a String view is requested, the captured data itself is never decoded
+	private Charset charset;
+	private CharsetDecoder decoder;
+
+	private HistoryPolicy historyPolicy = HistoryPolicy.unbounded();
+	private boolean retain = true;
+	private final CopyOnWriteArrayList<OutputListener> listeners = new CopyOnWriteArrayList<>();
+
+	private long historyStart = 0;
+	private long cursor = 0;
+	private long end = 0;
+	private boolean eof = false;
+
+	// In memory storage, data[0] holds the byte at stream position offset. null once spilled.
+	private byte[] data = new byte[INITIAL_CAPACITY];
+	private long offset = 0;
+
+	// File storage, the file starts at stream position spillOffset. null until spilled.
+	private long spillThreshold = 0;
+	private Path spillDirectory = null;
+	private Path spillFile = null;
+	private FileChannel spillChannel = null;
+	private long spillOffset = 0;
+	// Reused to read spilled output, allocated when first needed
+	private ByteBuffer chunk = null;
+
+	// Absolute positions of the line starts in the history, only used by the LAST_LINES policy
+	private final ArrayDeque<Long> lineStarts = new ArrayDeque<>();
+	private boolean atLineStart = true;
+
+	// Decoded history, null if it changed since it was last decoded
+	private String historyString = null;
+
+
+	OutputBuffer(Object lock){
+		this.lock = lock;
+		this.charset = Charset.defaultCharset();
+		this.decoder = newDecoder();
+	}
+
+
+	/**
+	 * Set the charset used to decode the output into Strings, the history is decoded again when it is requested
+	 */
+	void setCharset(Charset charset){
+		synchronized(this.lock){
+			this.charset = charset;
+			this.decoder = newDecoder();
+			this.historyString = null;
+		}
+	}
+
+
+	Charset getCharset(){
+		synchronized(this.lock){
+			return this.charset;
+		}
+	}
+
+
+	/**
+	 * Get the lock that is notified on new data and on the end of the stream
+	 */
+	Object getLock(){
+		return this.lock;
+	}
+
+
+	/**
+	 * Set the history policy, the current history is trimmed to fit the new policy
+	 */
+	void setHistoryPolicy(HistoryPolicy policy){
+		synchronized(this.lock){
+			this.historyPolicy = policy;
+			this.lineStarts.clear();
+			this.atLineStart = true;
+			trimHistory(this.historyStart, this.cursor);
+		}
+	}
+
+
+	HistoryPolicy getHistoryPolicy(){
+		synchronized(this.lock){
+			return this.historyPolicy;
+		}
+	}
+
+
+	/**
+	 * Move the captured output to a temporary file once it grows beyond the given number of bytes.
+	 * Only applies while the history policy is unbounded.
+	 *
+	 * @param threshold
+	 * 		The threshold in bytes, 0 or less to never spill
+	 * @param directory
+	 * 		The directory for the temporary file, null for the default temporary directory
+	 */
+	void setSpillThreshold(long threshold, Path directory){
+		synchronized(this.lock){
+			this.spillThreshold = threshold;
+			this.spillDirectory = directory;
+		}
+	}
+
+
+	/**
+	 * Decide if appended data is kept for reading, or only pushed to the listeners
+	 */
+	void setRetainOutput(boolean retain){
+		synchronized(this.lock){
+			this.retain = retain;
+		}
+	}
+
+
+	void addListener(OutputListener listener){
+		this.listeners.add(listener);
+	}
+
+
+	boolean removeListener(OutputListener listener){
+		return this.listeners.remove(listener);
+	}
+
+
+	/**
+	 * Append bytes read from the stream, wake up all waiters and push the bytes to the listeners
+	 *
+	 * @throws IOException
+	 * 		The bytes could not be written to the spill file, or do not fit in memory
+	 */
+	void append(byte[] bytes, int offset, int length) throws IOException{
+		synchronized(this.lock){
+			if(this.retain){
+				store(bytes, offset, length);
+				this.end += length;
+			}
+			this.lock.notifyAll();
+		}
+		for(OutputListener listener : this.listeners){
+			try{
+				listener.onOutput(bytes, offset, length);
+			}catch(RuntimeException e){
+				logger.warn("Output listener failed: " + e);
+			}
+		}
+	}
+
+
+	/**
+	 * Mark the end of the stream, wake up all waiters and notify the listeners
+	 */
+	void markEOF(){
+		synchronized(this.lock){
+			this.eof = true;
+			this.lock.notifyAll();
+		}
+		for(OutputListener listener : this.listeners){
+			try{
+				listener.onClose();
+			}catch(RuntimeException e){
+				logger.warn("Output listener failed: " + e);
+			}
+		}
+	}
+
+
+	/**
+	 * Check if unread data is available
+	 */
+	boolean hasData(){
+		synchronized(this.lock){
+			return this.end > this.cursor;
+		}
+	}
+
+
+	/**
+	 * Check if the stream has ended, there may still be unread data
+	 */
+	boolean isClosed(){
+		synchronized(this.lock){
+			return this.eof;
+		}
+	}
+
+
+	/**
+	 * Check if the stream has ended and all data has been read
+	 */
+	boolean isDrained(){
+		synchronized(this.lock){
+			return this.eof && this.end == this.cursor;
+		}
+	}
+
+
+	/**
+	 * Check if appended data is kept for reading
+	 */
+	boolean isRetained(){
+		synchronized(this.lock){
+			return this.retain;
+		}
+	}
+
+
+	/**
+	 * Get the stream position of the first unread byte
+	 */
+	long getCursor(){
+		synchronized(this.lock){
+			return this.cursor;
+		}
+	}
+
+
+	/**
+	 * Consume the unread data up to the given stream position, the consumed data is added to the history.
+	 * Positions before the first unread byte are ignored.
+	 */
+	void consumeTo(long position){
+		synchronized(this.lock){
+			if(position > this.end){
+				throw new IndexOutOfBoundsException("Position " + position + " is beyond the captured output, which ends at " + this.end);
+			}
+			if(position > this.cursor){
+				consume(position);
+			}
+		}
+	}
+
+
+	/**
+	 * Decode the captured bytes between the given stream positions, without consuming them
+	 */
+	String decode(long from, long to){
+		synchronized(this.lock){
+			checkRange(from, to);
+			int length = (int) Math.min(to - from, MAX_STRING_BYTES);
+			return decodeFully(from, length);
+		}
+	}
+
+
+	/**
+	 * Check if the captured output has been moved to a file
+	 */
+	boolean isSpilled(){
+		synchronized(this.lock){
+			return this.spillChannel != null;
+		}
+	}
+
+
+	/**
+	 * Get the first stream position that is still captured
+	 */
+	long getCaptureStart(){
+		synchronized(this.lock){
+			return this.historyStart;
+		}
+	}
+
+
+	/**
+	 * Get the stream position after the last captured byte
+	 */
+	long getCaptureEnd(){
+		synchronized(this.lock){
+			return this.end;
+		}
+	}
+
+
+	/**
+	 * Consume unread bytes into the destination buffer without decoding them, the consumed data is added to the history.
+	 *
+	 * @return
+	 * 		The number of bytes read, 0 if no data is available, -1 if the stream has ended and all data has been read
+	 */
+	int readBytes(ByteBuffer destination){
+		synchronized(this.lock){
+			if(this.cursor == this.end){
+				return this.eof ? -1 : 0;
+			}
+			if(!destination.hasRemaining()){
+				return 0;
+			}
+			int read = read(this.cursor, destination);
+			consume(this.cursor + read);
+			return read;
+		}
+	}
+
+
+	/**
+	 * Consume all unread data without decoding it, the consumed data is added to the history.
+	 */
+	void skipAll(){
+		synchronized(this.lock){
+			consume(this.end);
+		}
+	}
+
+
+	/**
+	 * Decode and consume all unread data, the consumed data is added to the history.
+	 * An incomplete multi-byte character at the end is kept until the rest of it arrives.
+	 *
+	 * @return
+	 * 		The decoded data, an empty String if no data is available
+	 */
+	String readString(){
+		synchronized(this.lock){
+			int available = (int) Math.min(this.end - this.cursor, MAX_STRING_BYTES);
+			if(available == 0){
+				return "";
+			}
+			CharBuffer out = CharBuffer.allocate((int) (available * (double) this.decoder.maxCharsPerByte()) + 1);
+			boolean endOfInput = this.eof && available == this.end - this.cursor;
+			consume(this.cursor + decodeRange(this.decoder, this.cursor, available, out, endOfInput));
+			return new String(out.array(), 0, out.position());
+		}
+	}
+
+
+	/**
+	 * Get the decoded history.
+	 * NOTE: Only the last 512MB of the history are decoded, the full history is available through getHistoryView().
+	 *
+	 * @return
+	 * 		All consumed data that is still kept by the history policy, at most its last 512MB
+	 */
+	String getHistoryString(){
+		synchronized(this.lock){
+			if(this.historyString == null){
+				int length = (int) Math.min(this.cursor - this.historyStart, MAX_STRING_BYTES);
+				this.historyString = decodeFully(this.cursor - length, length);
+			}
+			return this.historyString;
+		}
+	}
+
+
+	/**
+	 * Get a read-only view on the history bytes without copying them.
+	 * The view is a snapshot, it is not affected by data consumed later on.
+	 *
+	 * @return
+	 * 		A read-only buffer holding all consumed data that is still kept by the history policy
+	 */
+	ByteBuffer getHistoryView(){
+		synchronized(this.lock){
+			return view(this.historyStart, this.cursor);
+		}
+	}
+
+
+	/**
+	 * Get a read-only view on the history bytes like getHistoryView(), limited to the bytes that
+	 * getHistoryString() decodes.
+	 */
+	ByteBuffer getHistoryTailView(){
+		synchronized(this.lock){
+			return view(Math.max(this.historyStart, this.cursor - MAX_STRING_BYTES), this.cursor);
+		}
+	}
+
+
+	/**
+	 * Get a read-only view on the captured bytes between the given stream positions, without copying them.
+	 * In memory the view is a slice of the buffer, on file it is memory mapped.
+	 */
+	ByteBuffer view(long from, long to){
+		synchronized(this.lock){
+			checkRange(from, to);
+			if(to - from > Integer.MAX_VALUE){
+				throw new UnsupportedOperationException("Captured output of " + (to - from)
+						+ " bytes is too large for a single view, use random access or a stream instead");
+			}
+			return bytes(from, (int) (to - from)).slice().asReadOnlyBuffer();
+		}
+	}
+
+
+	/**
+	 * Copy captured bytes starting at the given stream position into the destination buffer.
+	 *
+	 * @return
+	 * 		The number of bytes copied, -1 if the position is at or beyond the end of the captured output
+	 */
+	int read(long position, ByteBuffer destination){
+		synchronized(this.lock){
+			if(position >= this.end){
+				return -1;
+			}
+			checkRange(position, this.end);
+			int length = (int) Math.min(this.end - position, destination.remaining());
+			if(this.spillChannel == null){
+				destination.put(this.data, (int) (position - this.offset), length);
+				return length;
+			}
+			// Buffer casts keep the Java 8 signatures when compiled on a later JDK
+			ByteBuffer target = destination.duplicate();
+			((Buffer) target).limit(target.position() + length);
+			readSpilled(position, target);
+			((Buffer) destination).position(destination.position() + length);
+			return length;
+		}
+	}
+
+
+	/**
+	 * Drop all captured output and delete the spill file, if any. The history policy and listeners are kept.
+	 */
+	void release(){
+		synchronized(this.lock){
+			closeSpillFile();
+			this.data = new byte[INITIAL_CAPACITY];
+			this.offset = this.end;
+			this.historyStart = this.end;
+			this.cursor = this.end;
+			this.lineStarts.clear();
+			this.atLineStart = true;
+			this.historyString = null;
+		}
+	}
+
+
+	private void checkRange(long from, long to){
+		if(from < this.historyStart || to > this.end || from > to){
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") is not captured, captured output is ["
+					+ this.historyStart + ", " + this.end + ")");
+		}
+	}
+
+
+	/**
+	 * Get the bytes between the given stream positions, wrapped if they are in memory, mapped if they are on file.
+	 * Only used for the views, a mapping is only released once it is garbage collected.
+	 */
+	private ByteBuffer bytes(long from, int length){
+		if(this.spillChannel == null){
+			return ByteBuffer.wrap(this.data, (int) (from - this.offset), length);
+		}
+		try{
+			return this.spillChannel.map(FileChannel.MapMode.READ_ONLY, from - this.spillOffset, length);
+		}catch(IOException e){
+			throw new IllegalStateException("Could not map spilled output from " + this.spillFile, e);
+		}
+	}
+
+
+	/**
+	 * Get at most CHUNK_SIZE bytes starting at the given stream position, wrapped if they are in memory,
+	 * read into the reused chunk buffer if they are on file
+	 */
+	private ByteBuffer chunk(long from, int length){
+		if(this.spillChannel == null){
+			return ByteBuffer.wrap(this.data, (int) (from - this.offset), length);
+		}
+		ByteBuffer chunk = chunkBuffer();
+		((Buffer) chunk).clear();
+		((Buffer) chunk).limit(length);
+		readSpilled(from, chunk);
+		((Buffer) chunk).flip();
+		return chunk;
+	}
+
+
+	private ByteBuffer chunkBuffer(){
+		if(this.chunk == null){
+			this.chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		}
+		return this.chunk;
+	}
+
+
+	/**
+	 * Fill the remaining space of the target buffer with spilled bytes starting at the given stream position
+	 */
+	private void readSpilled(long position, ByteBuffer target){
+		try{
+			long filePosition = position - this.spillOffset;
+			while(target.hasRemaining()){
+				int read = this.spillChannel.read(target, filePosition);
+				if(read < 0){
+					throw new EOFException("Spill file ends at " + filePosition);
+				}
+				filePosition += read;
+			}
+		}catch(IOException e){
+			throw new IllegalStateException("Could not read spilled output from " + this.spillFile, e);
+		}
+	}
+
+
+	/**
+	 * Decode the bytes between the given stream positions with a new decoder
+	 */
+	private String decodeFully(long from, int length){
+		CharsetDecoder decoder = newDecoder();
+		CharBuffer out = CharBuffer.allocate((int) (length * (double) decoder.maxCharsPerByte()) + 1);
+		decodeRange(decoder, from, length, out, true);
+		return new String(out.array(), 0, out.position());
+	}
+
+
+	/**
+	 * Decode the bytes between the given stream positions into the output buffer, which must be large enough.
+	 * Spilled bytes are decoded chunk by chunk.
+	 *
+	 * @return
+	 * 		The number of bytes decoded, an incomplete character at the end is not decoded unless it is the end of input
+	 */
+	private int decodeRange(CharsetDecoder decoder, long from, int length, CharBuffer out, boolean endOfInput){
+		ByteBuffer in;
+		if(this.spillChannel == null){
+			in = ByteBuffer.wrap(this.data, (int) (from - this.offset), length);
+			decoder.decode(in, out, endOfInput);
+		}else{
+			in = chunkBuffer();
+			((Buffer) in).clear();
+			long position = from;
+			long to = from + length;
+			while(position < to){
+				// An incomplete character of the previous chunk is kept at the start of the buffer
+				int read = (int) Math.min(in.remaining(), to - position);
+				((Buffer) in).limit(in.position() + read);
+				readSpilled(position, in);
+				position += read;
+				((Buffer) in).flip();
+				decoder.decode(in, out, endOfInput && position == to);
+				in.compact();
+			}
+			((Buffer) in).flip();
+		}
+		if(endOfInput){
+			decoder.flush(out);
+		}
+		return length - in.remaining();
+	}
+
+
+	/**
+	 * Store appended bytes, in memory or on file. Spills to file first if the threshold is exceeded.
+	 */
+	private void store(byte[] bytes, int offset, int length) throws IOException{
+		if(this.spillChannel == null && this.spillThreshold > 0
+				&& this.historyPolicy.getMode() == HistoryPolicy.MODE.UNBOUNDED
+				&& this.end - this.historyStart + length > this.spillThreshold){
+			spill();
+		}
+		if(this.spillChannel != null){
+			ByteBuffer source = ByteBuffer.wrap(bytes, offset, length);
+			long position = this.end - this.spillOffset;
+			while(source.hasRemaining()){
+				position += this.spillChannel.write(source, position);
+			}
+			return;
+		}
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, this.data, (int) (this.end - this.offset), length);
+	}
+
+
+	/**
+	 * Move the captured output from memory to a new temporary file, which is deleted when it is closed
+	 */
+	private void spill() throws IOException{
+		Path file = this.spillDirectory == null
+				? Files.createTempFile("sprocess-", ".out")
+				: Files.createTempFile(this.spillDirectory, "sprocess-", ".out");
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE);
+		try{
+			ByteBuffer captured = ByteBuffer.wrap(this.data, (int) (this.historyStart - this.offset),
+					(int) (this.end - this.historyStart));
+			long position = 0;
+			while(captured.hasRemaining()){
+				position += channel.write(captured, position);
+			}
+		}catch(IOException e){
+			channel.close();
+			throw e;
+		}
+		this.spillFile = file;
+		this.spillChannel = channel;
+		this.spillOffset = this.historyStart;
+		this.data = null;
+		logger.debug("Spilled " + (this.end - this.historyStart) + " bytes of output to " + file);
+	}
+
+
+	private void closeSpillFile(){
+		if(this.spillChannel == null){
+			return;
+		}
+		try{
+			this.spillChannel.close();
+			Files.deleteIfExists(this.spillFile);
+		}catch(IOException e){
+			logger.warn("Could not delete spill file " + this.spillFile + ": " + e.getMessage());
+		}
+		this.spillChannel = null;
+		this.spillFile = null;
+		this.chunk = null;
+	}
+
+
+	/**
+	 * Move the cursor up to the given position and trim the history according to the policy
+	 */
+	private void consume(long newCursor){
+		long oldCursor = this.cursor;
+		this.cursor = newCursor;
+		trimHistory(oldCursor, newCursor);
+		this.historyString = null;
+	}
+
+
+	private void trimHistory(long from, long to){
+		switch(this.historyPolicy.getMode()){
+		case UNBOUNDED:
+			break;
+		case DISABLED:
+			this.historyStart = to;
+			break;
+		case LAST_BYTES:
+			this.historyStart = Math.max(this.historyStart, to - this.historyPolicy.getLimit());
+			break;
+		case LAST_LINES:
+			scanLineStarts(from, to);
+			while(this.lineStarts.size() > this.historyPolicy.getLimit()){
+				this.lineStarts.removeFirst();
+			}
+			Long first = this.lineStarts.peekFirst();
+			this.historyStart = first == null ? to : first;
+			break;
+		}
+		this.historyString = null;
+	}
+
+
+	private void scanLineStarts(long from, long to){
+		long position = from;
+		while(position < to){
+			int length = (int) Math.min(to - position, CHUNK_SIZE);
+			ByteBuffer chunk = chunk(position, length);
+			for(int i = 0; i < length; i++){
+				if(this.atLineStart){
+					this.lineStarts.addLast(position + i);
+				}
+				this.atLineStart = chunk.get() == '\n';
+			}
+			position += length;
+		}
+	}
+
+
+	/**
+	 * Make room for length more bytes. The live data is moved to a new array which is at least twice the size
+	 * of the live data, so every byte is copied an amortized constant number of times.
+	 *
+	 * @throws IOException
+	 * 		The live data would not fit in a single array
+	 */
+	private void ensureCapacity(int length) throws IOException{
+		if(this.data.length - (this.end - this.offset) >= length){
+			return;
+		}
+		int used = (int) (this.end - this.historyStart);
+		long needed = (long) used + length;
+		if(needed > MAX_CAPACITY){
+			throw new IOException("Captured output of " + needed + " bytes does not fit in memory, set a spill threshold"
+					+ " or a bounded history policy, or read the output as it arrives");
+		}
+		int capacity = (int) Math.min(MAX_CAPACITY, Math.max(INITIAL_CAPACITY, 2 * needed));
+		byte[] target = new byte[capacity];
+		System.arraycopy(this.data, (int) (this.historyStart - this.offset), target, 0, used);
+		this.data = target;
+		this.offset = this.historyStart;
+	}
+
+
+	private CharsetDecoder newDecoder(){
+		return this.charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+}
@@ -0,0 +1,34 @@
+package process;
+
+/**
+ * Receives the output of a SProcess stream as it arrives, see SProcess.addNormalOutputListener() and
+ * SProcess.addErrorOutputListener().
+ * 
+ * Listeners are called on the thread reading the stream, in the order the data was produced.
+ * They should return quickly: while a listener runs, no more output is read from the stream.
+ * 
+ * @author polle
+ *
+ */
+public interface OutputListener {
+
+	/**
+	 * Called for every chunk of data read from the stream.
+	 * 
+	 * @param data
+	 * 		The buffer holding the chunk. It is reused after this call returns, copy what should be kept.
+	 * @param offset
+	 * 		The start of the chunk in the buffer
+	 * @param length
+	 * 		The number of bytes in the chunk
+	 */
+	void onOutput(byte[] data, int offset, int length);
+	
+	
+	/**
+	 * Called once when the stream is closed, after the last chunk.
+	 */
+	default void onClose(){
+	}
+	
+}
@@ -1,49 +1,166 @@
 package process;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Copies the raw bytes of one process stream into the stdIn of another process.
+ *
+ * Data is moved in bulk through a single reusable buffer, so at most one buffer of data is held in the JVM
+ * per pipe. When the receiving process does not keep up, the blocking write stalls the pipe which in turn
+ * stops reading from the sender (backpressure through the OS pipe buffers).
+ * The pipe runs until the sender closes its stream, after which the stdIn of the receiver is closed as well.
+ *
+ * @author polle
+ *
+ */
 public class PipeThread implements Runnable{
 
+	/**
+	 * Default size of the transfer buffer in bytes.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
 	private final Logger logger = LoggerFactory.getLogger(PipeThread.class);
-	
+
 	private final SProcessPiped sender;
-	private final BufferedReader in;
-	private final BufferedWriter out;
-	
-	public PipeThread(BufferedReader in, BufferedWriter out, SProcessPiped sender){
+	private final InputStream in;
+	private final OutputStream out;
+	private final byte[] buffer;
+
+	// Statistics, only written by the pipe thread itself
+	private volatile long bytesTransferred = 0;
+	private volatile long stallNanos = 0;
+	private volatile long idleNanos = 0;
+	private volatile long startNanos = 0;
+	private volatile long endNanos = 0;
+	private volatile boolean started = false;
+	private volatile boolean finished = false;
+
+	public PipeThread(InputStream in, OutputStream out, SProcessPiped sender){
+		this(in, out, sender, DEFAULT_BUFFER_SIZE);
+	}
+
+	public PipeThread(InputStream in, OutputStream out, SProcessPiped sender, int bufferSize){
+		if(bufferSize <= 0){
+			throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+		}
 		this.in = in;
 		this.out = out;
 		this.sender = sender;
+		this.buffer = new byte[bufferSize];
 	}
-	
+
 	@Override
 	public void run() {
+		this.startNanos = System.nanoTime();
+		this.started = true;
 		try{
 			while(true){
-				// We really want to start off with a blocking read to avoid active waiting
-				char ch = (char) in.read();
-				String data =""+ ch;
-				while(in.ready()){ // Now read all available characters
-					ch = (char) in.read();
-					System.out.println("char: " + Character.getNumericValue(ch));
-					data = data + ch;
-				}
-				out.write(data);
-				out.flush();
-				if(this.sender.getStatus() == SProcess.STATUS.COMPLETED_NORMAL){
+				// Blocking read, returns as soon as any data is available
+				long before = System.nanoTime();
+				int read = in.read(this.buffer);
+				long afterRead = System.nanoTime();
+				this.idleNanos += afterRead - before;
+				if(read < 0){
 					break;
 				}
+
+				out.write(this.buffer, 0, read);
+				// Only flush when the sender has nothing more for us right now
+				if(in.available() == 0){
+					out.flush();
+				}
+				this.stallNanos += System.nanoTime() - afterRead;
+				this.bytesTransferred += read;
 			}
+		}catch(IOException e){
+			logger.error("Pipe from \"" + this.sender.getCommand() + "\" failed: " + e.getMessage());
+		}finally{
+			closeQuietly();
+			this.endNanos = System.nanoTime();
+			this.finished = true;
+		}
+	}
+
+
+	private void closeQuietly(){
+		try{
 			in.close();
+		}catch(IOException e){
+			logger.warn(e.getMessage());
+		}
+		try{
+			// Closing the stdIn of the receiver signals EOF to it
 			out.close();
 		}catch(IOException e){
-			logger.error(e.getMessage());
+			logger.warn(e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Get the number of bytes this pipe has delivered to the receiving process
+	 *
+	 * @return
+	 * 		The number of bytes written to the receiver so far
+	 */
+	public long getBytesTransferred(){
+		return this.bytesTransferred;
+	}
+
+
+	/**
+	 * Get the time this pipe spent blocked on the receiving process (backpressure)
+	 *
+	 * @return
+	 * 		The stall time in milliseconds
+	 */
+	public long getStallTimeMillis(){
+		return this.stallNanos / 1000000;
+	}
+
+
+	/**
+	 * Get the time this pipe spent waiting for data from the sending process
+	 *
+	 * @return
+	 * 		The idle time in milliseconds
+	 */
+	public long getIdleTimeMillis(){
+		return this.idleNanos / 1000000;
+	}
+
+
+	/**
+	 * Get the average throughput of this pipe since it was started
+	 *
+	 * @return
+	 * 		The throughput in bytes per second
+	 * 		0 if the pipe has not started yet
+	 */
+	public double getThroughput(){
+		if(!this.started){
+			return 0;
 		}
+		long end = this.finished ? this.endNanos : System.nanoTime();
+		long elapsed = Math.max(1, end - this.startNanos);
+		return this.bytesTransferred * 1e9 / elapsed;
+	}
+
+
+	/**
+	 * Check if this pipe has finished, either because the sender closed its stream or because of an error
+	 *
+	 * @return
+	 * 		true if the pipe no longer transfers data
+	 */
+	public boolean isFinished(){
+		return this.finished;
 	}
 
 }
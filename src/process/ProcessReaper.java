@@ -0,0 +1,92 @@
+package process;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Detects the exit of processes whose output is not read in the background, or that closed their output
+ * streams and kept running, for which no reader thread can notice the exit. A single shared daemon thread
+ * checks all watched processes, it polls often right after a process is registered or exits and backs off
+ * while nothing changes. It sleeps when there is nothing to watch.
+ *
+ * @author polle
+ *
+ */
+final class ProcessReaper implements Runnable{
+
+	private static final long MIN_INTERVAL_MILLIS = 1;
+	private static final long MAX_INTERVAL_MILLIS = 100;
+
+	private static final ProcessReaper instance = new ProcessReaper();
+
+	private final List<SProcess> watched = new ArrayList<>();
+	private Thread thread = null;
+	private long interval = MIN_INTERVAL_MILLIS;
+
+
+	private ProcessReaper(){
+	}
+
+
+	/**
+	 * Watch the given started SProcess, markExited() is called on it once its process has exited.
+	 */
+	static void watch(SProcess command){
+		instance.add(command);
+	}
+
+
+	private synchronized void add(SProcess command){
+		this.watched.add(command);
+		this.interval = MIN_INTERVAL_MILLIS;
+		if(this.thread == null){
+			this.thread = new Thread(this, "SProcess reaper");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}else{
+			this.notifyAll();
+		}
+	}
+
+
+	@Override
+	public void run() {
+		List<SProcess> exited = new ArrayList<>();
+		while(true){
+			synchronized(this){
+				while(this.watched.isEmpty()){
+					try{
+						this.wait();
+					}catch(InterruptedException e){
+						// Daemon thread, keep watching
+					}
+				}
+				Iterator<SProcess> iterator = this.watched.iterator();
+				while(iterator.hasNext()){
+					SProcess command = iterator.next();
+					if(!command.getProcess().isAlive()){
+						iterator.remove();
+						exited.add(command);
+					}
+				}
+				this.interval = exited.isEmpty() ? Math.min(this.interval * 2, MAX_INTERVAL_MILLIS) : MIN_INTERVAL_MILLIS;
+			}
+
+			for(SProcess command : exited){
+				command.markExited();
+			}
+			exited.clear();
+
+			synchronized(this){
+				try{
+					// Woken up early when a new process is registered
+					this.wait(this.interval);
+				}catch(InterruptedException e){
+					// Daemon thread, keep watching
+				}
+			}
+		}
+	}
+
+}
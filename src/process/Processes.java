@@ -0,0 +1,371 @@
+package process;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Access to process details that the Java 8 Process API does not offer. Later Java versions are used
+ * through reflection when they are available.
+ *
+ * @author polle
+ *
+ */
+final class Processes {
+
+	// Process.pid(), Java 9 and later
+	private static final Method PID_METHOD = lookupMethod(Process.class, "pid");
+
+	// Process.toHandle() and the ProcessHandle methods used to kill a process tree, Java 9 and later
+	private static final Method TO_HANDLE_METHOD = lookupMethod(Process.class, "toHandle");
+	private static final Class<?> HANDLE_CLASS = TO_HANDLE_METHOD != null ? TO_HANDLE_METHOD.getReturnType() : null;
+	private static final Method DESCENDANTS_METHOD = lookupMethod(HANDLE_CLASS, "descendants");
+	private static final Method HANDLE_DESTROY_METHOD = lookupMethod(HANDLE_CLASS, "destroy");
+	private static final Method HANDLE_DESTROY_FORCIBLY_METHOD = lookupMethod(HANDLE_CLASS, "destroyForcibly");
+	private static final Method HANDLE_PID_METHOD = lookupMethod(HANDLE_CLASS, "pid");
+
+	// Without ProcessHandle, descendants are found in /proc on Linux
+	private static final Path PROC = Paths.get("/proc");
+	private static final ProcessBuilder.Redirect DEV_NULL = ProcessBuilder.Redirect.to(new File("/dev/null"));
+
+	/**
+	 * Environment variable marking a started process, it is inherited by all of its descendants. Descendants
+	 * that outlive their parent are adopted by another process, they are then only found by this mark.
+	 */
+	static final String TREE_VARIABLE = "SPROCESS_TREE_ID";
+	private static final String TREE_ID_PREFIX = UUID.randomUUID().toString() + "-";
+	private static final AtomicLong treeIds = new AtomicLong();
+
+
+	private Processes(){
+	}
+
+
+	/**
+	 * Get the OS process id of the given process
+	 *
+	 * @return
+	 * 		The process id, -1 if it is not known (for example for commands running on a ShellPool)
+	 */
+	static long pid(Process process){
+		if(PID_METHOD != null){
+			try{
+				return (Long) PID_METHOD.invoke(process);
+			}catch(ReflectiveOperationException | RuntimeException e){
+				return -1;
+			}
+		}
+		// Java 8 keeps the pid in a private field of the platform Process class
+		try{
+			Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getInt(process);
+		}catch(ReflectiveOperationException | RuntimeException e){
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Get a new unique value for the TREE_VARIABLE of a process that is about to be started
+	 */
+	static String newTreeId(){
+		return TREE_ID_PREFIX + treeIds.incrementAndGet();
+	}
+
+
+	/**
+	 * Take a snapshot of the given process and all of its descendants, the descendants are remembered so
+	 * they can still be killed once the process itself has exited and they were adopted by another parent.
+	 *
+	 * @param treeId
+	 * 		The TREE_VARIABLE the process was started with, to also find the descendants that outlived their
+	 * 		parent. null if it was not set.
+	 * @return
+	 * 		The process tree
+	 */
+	static ProcessTree tree(Process process, String treeId){
+		ProcessTree tree = new ProcessTree(process, treeId);
+		tree.collectDescendants();
+		return tree;
+	}
+
+
+	/**
+	 * Get the process ids of the current descendants of the given process
+	 *
+	 * @return
+	 * 		The process ids, empty if the process has no descendants or they can not be found
+	 */
+	static List<Long> descendantIds(Process process){
+		List<Object> handles = descendantHandles(process);
+		if(handles == null){
+			return new ArrayList<>(descendantPids(pid(process)).keySet());
+		}
+		List<Long> ids = new ArrayList<>(handles.size());
+		for(Object handle : handles){
+			try{
+				ids.add((Long) HANDLE_PID_METHOD.invoke(handle));
+			}catch(ReflectiveOperationException | RuntimeException e){
+				// Not an OS process
+			}
+		}
+		return ids;
+	}
+
+
+	/**
+	 * Get the descendants of the given process as ProcessHandles, null if ProcessHandle is not available
+	 */
+	private static List<Object> descendantHandles(Process process){
+		if(DESCENDANTS_METHOD == null){
+			return null;
+		}
+		try{
+			Object handle = TO_HANDLE_METHOD.invoke(process);
+			@SuppressWarnings("unchecked")
+			Stream<Object> descendants = (Stream<Object>) DESCENDANTS_METHOD.invoke(handle);
+			return descendants.collect(Collectors.toList());
+		}catch(ReflectiveOperationException | RuntimeException e){
+			// Not an OS process, for example a command running on a ShellPool
+			return Collections.emptyList();
+		}
+	}
+
+
+	/**
+	 * Get the descendants of the given process id from /proc, with their start times to recognize reused ids
+	 */
+	private static Map<Long, String> descendantPids(long pid){
+		if(pid < 0 || !Files.isDirectory(PROC)){
+			return Collections.emptyMap();
+		}
+		Map<Long, List<Long>> children = new HashMap<>();
+		Map<Long, String> startTimes = new HashMap<>();
+		try(DirectoryStream<Path> entries = Files.newDirectoryStream(PROC, "[0-9]*")){
+			for(Path entry : entries){
+				long child = Long.parseLong(entry.getFileName().toString());
+				String[] stat = readStat(child);
+				if(stat != null){
+					children.computeIfAbsent(Long.parseLong(stat[1]), p -> new ArrayList<>()).add(child);
+					startTimes.put(child, stat[19]);
+				}
+			}
+		}catch(IOException | RuntimeException e){
+			return Collections.emptyMap();
+		}
+		Map<Long, String> descendants = new HashMap<>();
+		Deque<Long> todo = new ArrayDeque<>();
+		todo.add(pid);
+		while(!todo.isEmpty()){
+			for(long child : children.getOrDefault(todo.poll(), Collections.emptyList())){
+				if(descendants.put(child, startTimes.get(child)) == null){
+					todo.add(child);
+				}
+			}
+		}
+		return descendants;
+	}
+
+
+	/**
+	 * Get the processes whose environment holds the given TREE_VARIABLE from /proc, with their start times
+	 */
+	private static Map<Long, String> markedPids(String treeId){
+		if(!Files.isDirectory(PROC)){
+			return Collections.emptyMap();
+		}
+		String mark = TREE_VARIABLE + "=" + treeId;
+		Map<Long, String> marked = new HashMap<>();
+		try(DirectoryStream<Path> entries = Files.newDirectoryStream(PROC, "[0-9]*")){
+			for(Path entry : entries){
+				String environment;
+				try{
+					environment = new String(Files.readAllBytes(entry.resolve("environ")), StandardCharsets.ISO_8859_1);
+				}catch(IOException | RuntimeException e){
+					// Exited in the meantime, or a process of another user
+					continue;
+				}
+				// Variables are separated by a NUL character
+				int index = environment.indexOf(mark);
+				while(index >= 0){
+					int end = index + mark.length();
+					if((index == 0 || environment.charAt(index - 1) == 0)
+							&& (end == environment.length() || environment.charAt(end) == 0)){
+						long pid = Long.parseLong(entry.getFileName().toString());
+						String[] stat = readStat(pid);
+						if(stat != null){
+							marked.put(pid, stat[19]);
+						}
+						break;
+					}
+					index = environment.indexOf(mark, index + 1);
+				}
+			}
+		}catch(IOException | RuntimeException e){
+			return marked;
+		}
+		return marked;
+	}
+
+
+	/**
+	 * Read the fields of /proc/[pid]/stat that follow the command name: state, ppid, ..., starttime at index 19
+	 */
+	static String[] readStat(long pid){
+		try{
+			String stat = new String(Files.readAllBytes(PROC.resolve(Long.toString(pid)).resolve("stat")), StandardCharsets.US_ASCII);
+			// The command name is between parentheses and may contain spaces and parentheses itself
+			String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+			return fields.length > 19 ? fields : null;
+		}catch(IOException | RuntimeException e){
+			// The process exited in the meantime
+			return null;
+		}
+	}
+
+
+	private static void signal(Map<Long, String> pids, boolean forcibly){
+		List<String> command = new ArrayList<>();
+		command.add("kill");
+		command.add(forcibly ? "-KILL" : "-TERM");
+		for(Map.Entry<Long, String> pid : pids.entrySet()){
+			String[] stat = readStat(pid.getKey());
+			// Skip processes that exited, and ids that were reused by a new process
+			if(stat != null && stat[19].equals(pid.getValue())){
+				command.add(Long.toString(pid.getKey()));
+			}
+		}
+		if(command.size() == 2){
+			return;
+		}
+		try{
+			new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(DEV_NULL).start();
+		}catch(IOException e){
+			// Nothing more can be done, the process itself is still destroyed
+		}
+	}
+
+
+	private static Method lookupMethod(Class<?> type, String name, Class<?>... parameters){
+		if(type == null){
+			return null;
+		}
+		try{
+			return type.getMethod(name, parameters);
+		}catch(NoSuchMethodException e){
+			return null;
+		}
+	}
+
+
+	/**
+	 * A process and the descendants it had when they were collected
+	 */
+	static final class ProcessTree{
+
+		private final Process process;
+		private final String treeId;
+		// ProcessHandles of the descendants when available, otherwise process ids with their start time
+		private final List<Object> handles = new ArrayList<>();
+		private final Set<Long> handlePids = new HashSet<>();
+		private final Map<Long, String> pids = new HashMap<>();
+
+		private ProcessTree(Process process, String treeId){
+			this.process = process;
+			this.treeId = treeId;
+		}
+
+
+		/**
+		 * Add the current descendants of the process. Once the process has exited, only the descendants
+		 * marked with its TREE_VARIABLE can still be found.
+		 */
+		synchronized void collectDescendants(){
+			if(this.process.isAlive()){
+				List<Object> handles = descendantHandles(this.process);
+				if(handles != null){
+					for(Object handle : handles){
+						this.handles.add(handle);
+						try{
+							this.handlePids.add((Long) HANDLE_PID_METHOD.invoke(handle));
+						}catch(ReflectiveOperationException | RuntimeException e){
+							// Not an OS process
+						}
+					}
+				}else{
+					this.pids.putAll(descendantPids(pid(this.process)));
+				}
+			}
+			if(this.treeId != null){
+				for(Map.Entry<Long, String> marked : markedPids(this.treeId).entrySet()){
+					if(!this.handlePids.contains(marked.getKey())){
+						this.pids.putIfAbsent(marked.getKey(), marked.getValue());
+					}
+				}
+			}
+		}
+
+
+		/**
+		 * Check if there is anything left to destroy
+		 *
+		 * @return
+		 * 		true if the process has exited and no descendant was collected
+		 */
+		synchronized boolean isEmpty(){
+			return !this.process.isAlive() && this.handles.isEmpty() && this.pids.isEmpty();
+		}
+
+
+		/**
+		 * Destroy the process and the collected descendants
+		 *
+		 * @param forcibly
+		 * 		false to ask them to terminate (SIGTERM), true to kill them (SIGKILL)
+		 */
+		synchronized void destroy(boolean forcibly){
+			if(forcibly){
+				// Also kill the children forked since the snapshot
+				collectDescendants();
+				this.process.destroyForcibly();
+			}else{
+				this.process.destroy();
+			}
+			Method method = forcibly ? HANDLE_DESTROY_FORCIBLY_METHOD : HANDLE_DESTROY_METHOD;
+			Iterator<Object> iterator = this.handles.iterator();
+			while(iterator.hasNext()){
+				try{
+					method.invoke(iterator.next());
+				}catch(ReflectiveOperationException | RuntimeException e){
+					// The descendant exited in the meantime
+					iterator.remove();
+				}
+			}
+			if(!this.pids.isEmpty()){
+				signal(this.pids, forcibly);
+			}
+		}
+	}
+
+}
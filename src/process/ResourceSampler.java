@@ -0,0 +1,310 @@
+package process;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the resource usage of all SProcesses that asked for it on a single shared daemon thread, by reading
+ * /proc/[pid]/stat, /proc/[pid]/status and /proc/[pid]/io on Linux.
+ *
+ * Every process is sampled at its own interval. The first samples come quicker (right away, then after 10ms,
+ * doubling up to the interval) so short lived processes are sampled too. The thread sleeps when no process is
+ * sampled. Once a process exits its /proc entry is gone, its usage stays the one of the last sample.
+ *
+ * @author polle
+ *
+ */
+final class ResourceSampler implements Runnable{
+
+	private static final Path PROC = Paths.get("/proc");
+	private static final long FIRST_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	// The unit of the CPU times in /proc/[pid]/stat (USER_HZ), 100 on all Linux architectures
+	private static final long CLOCK_TICK_NANOS = TimeUnit.SECONDS.toNanos(1) / 100;
+
+	private static final ResourceSampler instance = new ResourceSampler();
+
+	// logger
+	final Logger logger = LoggerFactory.getLogger(ResourceSampler.class);
+
+	// Guarded by this
+	private final List<Sampling> samplings = new ArrayList<>();
+	private Thread thread = null;
+
+
+	private ResourceSampler(){
+	}
+
+
+	/**
+	 * Start sampling the resource usage of the given process
+	 *
+	 * @param intervalNanos
+	 * 		The time between samples in nanoseconds
+	 * @param descendants
+	 * 		true to include the descendants of the process
+	 * @return
+	 * 		The sampling, null if the resource usage of the process can not be sampled on this platform
+	 */
+	static Sampling register(Process process, long intervalNanos, boolean descendants){
+		long pid = Processes.pid(process);
+		if(pid < 0 || !Files.isDirectory(PROC.resolve(Long.toString(pid)))){
+			return null;
+		}
+		Sampling sampling = new Sampling(process, pid, intervalNanos, descendants);
+		instance.add(sampling);
+		return sampling;
+	}
+
+
+	private synchronized void add(Sampling sampling){
+		this.samplings.add(sampling);
+		if(this.thread == null){
+			this.thread = new Thread(this, "SProcess resource sampler");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}else{
+			this.notifyAll();
+		}
+	}
+
+
+	private synchronized void remove(Sampling sampling){
+		this.samplings.remove(sampling);
+	}
+
+
+	@Override
+	public void run() {
+		List<Sampling> due = new ArrayList<>();
+		while(true){
+			synchronized(this){
+				long now = System.nanoTime();
+				long next = Long.MAX_VALUE;
+				for(Sampling sampling : this.samplings){
+					if(sampling.nextSample - now <= 0){
+						due.add(sampling);
+					}else{
+						next = Math.min(next, sampling.nextSample - now);
+					}
+				}
+				if(due.isEmpty()){
+					try{
+						if(this.samplings.isEmpty()){
+							this.wait();
+						}else{
+							this.wait(Math.max(1, next / 1000000));
+						}
+					}catch(InterruptedException e){
+						// Daemon thread, keep running
+					}
+					continue;
+				}
+			}
+
+			for(Sampling sampling : due){
+				try{
+					sampling.sample();
+				}catch(RuntimeException e){
+					logger.warn("Sampling the resource usage of process " + sampling.pid + " failed: " + e);
+				}
+			}
+			due.clear();
+		}
+	}
+
+
+	/**
+	 * Read the values of the given keys from a /proc file of "key: value" lines, -1 for the missing keys
+	 */
+	private static long[] readValues(long pid, String file, String... keys){
+		long[] values = new long[keys.length];
+		for(int i = 0; i < values.length; i++){
+			values[i] = -1;
+		}
+		String content;
+		try{
+			content = new String(Files.readAllBytes(PROC.resolve(Long.toString(pid)).resolve(file)), StandardCharsets.US_ASCII);
+		}catch(IOException | RuntimeException e){
+			// The process exited in the meantime, or the file is not readable (io of processes of other users)
+			return values;
+		}
+		for(String line : content.split("\n")){
+			int colon = line.indexOf(':');
+			if(colon < 0){
+				continue;
+			}
+			String key = line.substring(0, colon);
+			for(int i = 0; i < keys.length; i++){
+				if(keys[i].equals(key)){
+					values[i] = parseValue(line.substring(colon + 1));
+				}
+			}
+		}
+		return values;
+	}
+
+
+	/**
+	 * Parse a value of a /proc file, values in kB are converted to bytes
+	 */
+	private static long parseValue(String value){
+		value = value.trim();
+		long factor = 1;
+		if(value.endsWith(" kB")){
+			value = value.substring(0, value.length() - 3).trim();
+			factor = 1024;
+		}
+		try{
+			return Long.parseLong(value) * factor;
+		}catch(NumberFormatException e){
+			return -1;
+		}
+	}
+
+
+	/**
+	 * The resource usage sampling of one process
+	 */
+	static final class Sampling{
+
+		private final Process process;
+		private final long pid;
+		private final long intervalNanos;
+		private final boolean descendants;
+		// Only used by the sampler thread
+		private long nextSample;
+		private long delay;
+		// Guarded by this
+		private ResourceUsage usage = null;
+		private boolean finished = false;
+
+		private Sampling(Process process, long pid, long intervalNanos, boolean descendants){
+			this.process = process;
+			this.pid = pid;
+			this.intervalNanos = intervalNanos;
+			this.descendants = descendants;
+			this.nextSample = System.nanoTime();
+			this.delay = Math.min(FIRST_DELAY_NANOS, intervalNanos);
+		}
+
+		/**
+		 * @return
+		 * 		The usage of the last sample, null if no sample was taken yet
+		 */
+		ResourceUsage getUsage(){
+			if(!this.process.isAlive()){
+				// Exited, possibly before the exit is marked on the SProcess
+				finish();
+			}
+			synchronized(this){
+				return this.usage;
+			}
+		}
+
+		/**
+		 * Stop sampling, the process exited. The usage of the last sample becomes final.
+		 * Called when the exit is marked on the SProcess, or earlier once the process is found dead.
+		 */
+		void finish(){
+			instance.remove(this);
+			synchronized(this){
+				if(this.finished){
+					return;
+				}
+				this.finished = true;
+				if(this.usage != null){
+					this.usage = this.usage.toFinal();
+				}
+			}
+		}
+
+		private void sample(){
+			this.nextSample = System.nanoTime() + this.delay;
+			this.delay = Math.min(this.delay * 2, this.intervalNanos);
+
+			List<Long> pids = new ArrayList<>();
+			pids.add(this.pid);
+			if(this.descendants){
+				pids.addAll(Processes.descendantIds(this.process));
+			}
+
+			long userTicks = 0;
+			long systemTicks = 0;
+			long rss = 0;
+			long peakRss = 0;
+			long[] counters = new long[6];
+			int processes = 0;
+			for(long id : pids){
+				String[] stat = Processes.readStat(id);
+				if(stat == null){
+					if(id == this.pid){
+						// The process exited, keep the last sample
+						finish();
+						return;
+					}
+					// Exited in the meantime
+					continue;
+				}
+				processes++;
+				// utime, stime, cutime and cstime are fields 14 to 17 of /proc/[pid]/stat, the first one read is field 3
+				userTicks += Long.parseLong(stat[11]);
+				systemTicks += Long.parseLong(stat[12]);
+				if(this.descendants){
+					// The descendants that exited and were waited for
+					userTicks += Long.parseLong(stat[13]);
+					systemTicks += Long.parseLong(stat[14]);
+				}
+				long[] status = readValues(id, "status", "VmRSS", "VmHWM", "voluntary_ctxt_switches", "nonvoluntary_ctxt_switches");
+				long[] io = readValues(id, "io", "rchar", "wchar", "read_bytes", "write_bytes");
+				rss += Math.max(0, status[0]);
+				peakRss = Math.max(peakRss, status[1]);
+				counters[0] += Math.max(0, status[2]);
+				counters[1] += Math.max(0, status[3]);
+				for(int i = 0; i < io.length; i++){
+					counters[2 + i] += Math.max(0, io[i]);
+				}
+			}
+			if(!this.process.isAlive()){
+				// The process id may have been reused once the process was reaped
+				finish();
+				return;
+			}
+
+			synchronized(this){
+				if(this.finished){
+					return;
+				}
+				ResourceUsage previous = this.usage;
+				int samples = 1;
+				if(previous != null){
+					// Counters never go back, even when a descendant that was counted exits
+					userTicks = Math.max(userTicks, previous.getUserCpuTime(TimeUnit.NANOSECONDS) / CLOCK_TICK_NANOS);
+					systemTicks = Math.max(systemTicks, previous.getSystemCpuTime(TimeUnit.NANOSECONDS) / CLOCK_TICK_NANOS);
+					peakRss = Math.max(peakRss, previous.getPeakRssBytes());
+					counters[0] = Math.max(counters[0], previous.getVoluntaryContextSwitches());
+					counters[1] = Math.max(counters[1], previous.getInvoluntaryContextSwitches());
+					counters[2] = Math.max(counters[2], previous.getReadBytes());
+					counters[3] = Math.max(counters[3], previous.getWrittenBytes());
+					counters[4] = Math.max(counters[4], previous.getStorageReadBytes());
+					counters[5] = Math.max(counters[5], previous.getStorageWrittenBytes());
+					samples = previous.getSampleCount() + 1;
+				}
+				// The processes together may use more than the peak of any of them
+				peakRss = Math.max(peakRss, rss);
+				this.usage = new ResourceUsage(userTicks * CLOCK_TICK_NANOS, systemTicks * CLOCK_TICK_NANOS, rss, peakRss,
+						counters[2], counters[3], counters[4], counters[5], counters[0], counters[1],
+						processes, this.descendants, samples, System.currentTimeMillis(), false);
+			}
+		}
+	}
+
+}
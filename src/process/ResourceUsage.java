@@ -0,0 +1,232 @@
+package process;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resources used by the process of a SProcess, as sampled from /proc on Linux.
+ * See SProcessExecutor.setResourceSampling(), SProcess.getResourceUsage() and SProcessResult.getResourceUsage().
+ *
+ * Counters (CPU time, I/O, context switches) only grow from sample to sample. With descendants included they
+ * are the sums over the process and its descendants alive at the sample, and the CPU time also includes the
+ * descendants that exited and were waited for by their parent. Counters of the last moments before the process
+ * exits are missing, the final usage is the one of the last sample.
+ *
+ * @author polle
+ *
+ */
+public final class ResourceUsage {
+
+	private final long userCpuNanos;
+	private final long systemCpuNanos;
+	private final long rssBytes;
+	private final long peakRssBytes;
+	private final long readBytes;
+	private final long writtenBytes;
+	private final long storageReadBytes;
+	private final long storageWrittenBytes;
+	private final long voluntaryContextSwitches;
+	private final long involuntaryContextSwitches;
+	private final int processCount;
+	private final boolean descendants;
+	private final int samples;
+	private final long sampleTimeMillis;
+	private final boolean last;
+
+
+	ResourceUsage(long userCpuNanos, long systemCpuNanos, long rssBytes, long peakRssBytes, long readBytes, long writtenBytes,
+			long storageReadBytes, long storageWrittenBytes, long voluntaryContextSwitches, long involuntaryContextSwitches,
+			int processCount, boolean descendants, int samples, long sampleTimeMillis, boolean last){
+		this.userCpuNanos = userCpuNanos;
+		this.systemCpuNanos = systemCpuNanos;
+		this.rssBytes = rssBytes;
+		this.peakRssBytes = peakRssBytes;
+		this.readBytes = readBytes;
+		this.writtenBytes = writtenBytes;
+		this.storageReadBytes = storageReadBytes;
+		this.storageWrittenBytes = storageWrittenBytes;
+		this.voluntaryContextSwitches = voluntaryContextSwitches;
+		this.involuntaryContextSwitches = involuntaryContextSwitches;
+		this.processCount = processCount;
+		this.descendants = descendants;
+		this.samples = samples;
+		this.sampleTimeMillis = sampleTimeMillis;
+		this.last = last;
+	}
+
+
+	/**
+	 * Get a copy of this usage marked as the final usage of an exited process
+	 */
+	ResourceUsage toFinal(){
+		return new ResourceUsage(this.userCpuNanos, this.systemCpuNanos, 0, this.peakRssBytes, this.readBytes, this.writtenBytes,
+				this.storageReadBytes, this.storageWrittenBytes, this.voluntaryContextSwitches, this.involuntaryContextSwitches,
+				0, this.descendants, this.samples, this.sampleTimeMillis, true);
+	}
+
+
+	/**
+	 * Get the CPU time spent in user and kernel mode
+	 *
+	 * @param unit
+	 * 		The unit to return the time in
+	 * @return
+	 * 		The total CPU time
+	 */
+	public long getCpuTime(TimeUnit unit){
+		return unit.convert(this.userCpuNanos + this.systemCpuNanos, TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * @param unit
+	 * 		The unit to return the time in
+	 * @return
+	 * 		The CPU time spent in user mode
+	 */
+	public long getUserCpuTime(TimeUnit unit){
+		return unit.convert(this.userCpuNanos, TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * @param unit
+	 * 		The unit to return the time in
+	 * @return
+	 * 		The CPU time spent in kernel mode
+	 */
+	public long getSystemCpuTime(TimeUnit unit){
+		return unit.convert(this.systemCpuNanos, TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * @return
+	 * 		The resident memory at the last sample in bytes, 0 once the process exited
+	 */
+	public long getRssBytes(){
+		return this.rssBytes;
+	}
+
+
+	/**
+	 * Get the peak resident memory: the highest of the peaks reported by the kernel for every sampled process
+	 * and of the resident memory of all sampled processes together
+	 *
+	 * @return
+	 * 		The peak resident memory in bytes
+	 */
+	public long getPeakRssBytes(){
+		return this.peakRssBytes;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of bytes read through read system calls, from files, pipes, sockets and terminals
+	 */
+	public long getReadBytes(){
+		return this.readBytes;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of bytes written through write system calls, to files, pipes, sockets and terminals
+	 */
+	public long getWrittenBytes(){
+		return this.writtenBytes;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of bytes fetched from storage, 0 if the kernel does not account block I/O
+	 */
+	public long getStorageReadBytes(){
+		return this.storageReadBytes;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of bytes sent to storage, 0 if the kernel does not account block I/O
+	 */
+	public long getStorageWrittenBytes(){
+		return this.storageWrittenBytes;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of times the process gave up the CPU, normally to wait for I/O
+	 */
+	public long getVoluntaryContextSwitches(){
+		return this.voluntaryContextSwitches;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of times the process was preempted, a high count points to CPU contention
+	 */
+	public long getInvoluntaryContextSwitches(){
+		return this.involuntaryContextSwitches;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of processes alive at the last sample, the process itself included. 0 once it exited.
+	 */
+	public int getProcessCount(){
+		return this.processCount;
+	}
+
+
+	/**
+	 * @return
+	 * 		true if the usage of the descendants of the process is included
+	 */
+	public boolean includesDescendants(){
+		return this.descendants;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of samples this usage is built from
+	 */
+	public int getSampleCount(){
+		return this.samples;
+	}
+
+
+	/**
+	 * @return
+	 * 		The time of the last sample in milliseconds since the epoch
+	 */
+	public long getSampleTimeMillis(){
+		return this.sampleTimeMillis;
+	}
+
+
+	/**
+	 * @return
+	 * 		true if the process has exited, this usage will not change anymore
+	 */
+	public boolean isFinal(){
+		return this.last;
+	}
+
+
+	@Override
+	public String toString(){
+		return "ResourceUsage[cpu=" + getCpuTime(TimeUnit.MILLISECONDS) + "ms (user=" + getUserCpuTime(TimeUnit.MILLISECONDS)
+				+ "ms, system=" + getSystemCpuTime(TimeUnit.MILLISECONDS) + "ms), rss=" + this.rssBytes + ", peakRss=" + this.peakRssBytes
+				+ ", read=" + this.readBytes + ", written=" + this.writtenBytes + ", storageRead=" + this.storageReadBytes
+				+ ", storageWritten=" + this.storageWrittenBytes + ", contextSwitches=" + this.voluntaryContextSwitches + "/"
+				+ this.involuntaryContextSwitches + ", processes=" + this.processCount + ", samples=" + this.samples
+				+ (this.last ? ", final" : "") + "]";
+	}
+
+}
@@ -0,0 +1,226 @@
+package process;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory cache of SProcess results, used by SProcessExecutor.executeCommandAsync() for commands that
+ * allow it (see SProcess.getCacheTimeToLive()). Register it with SProcessExecutor.setResultCache().
+ *
+ * Results are keyed by the command string, OS type, working directory, environment, redirects and charset
+ * of the SProcess.
+ * An entry expires after the time to live of the SProcess that produced it, and the least recently used
+ * entry is evicted once the cache is full. Only results with exit code 0 that did not time out are cached.
+ *
+ * @author polle
+ *
+ */
+public final class ResultCache {
+
+	private final int maxEntries;
+
+	// Guarded by the map, in access order for the LRU eviction
+	private final LinkedHashMap<CommandKey, CachedResult> entries;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+
+	/**
+	 * Create a cache for at most the given number of results
+	 *
+	 * @param maxEntries
+	 * 		The maximum number of cached results, the least recently used one is evicted beyond it
+	 */
+	public ResultCache(int maxEntries){
+		if(maxEntries < 1){
+			throw new IllegalArgumentException("A result cache needs room for at least 1 entry: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<CommandKey, CachedResult>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CommandKey, CachedResult> eldest) {
+				if(this.size() > ResultCache.this.maxEntries){
+					ResultCache.this.evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+
+	/**
+	 * Get the cached result for the given command
+	 *
+	 * @return
+	 * 		The result, null if there is no result or it expired
+	 */
+	SProcessResult get(CommandKey key){
+		synchronized(this.entries){
+			CachedResult entry = this.entries.get(key);
+			if(entry != null && entry.expiresNanos - System.nanoTime() <= 0){
+				this.entries.remove(key);
+				this.expirations++;
+				entry = null;
+			}
+			if(entry == null){
+				this.misses++;
+				return null;
+			}
+			this.hits++;
+			return entry.result;
+		}
+	}
+
+
+	/**
+	 * Cache the result of the given command for the given time to live in milliseconds, if it completed normally
+	 */
+	void put(CommandKey key, long ttl, SProcessResult result){
+		if(ttl <= 0 || result.getExitCode() != 0 || result.isTimedOut()){
+			return;
+		}
+		CachedResult entry = new CachedResult(result, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl));
+		synchronized(this.entries){
+			this.entries.put(key, entry);
+		}
+	}
+
+
+	/**
+	 * Remove all cached results of the given command string, whatever their working directory or environment
+	 *
+	 * @param command
+	 * 		The command string, see SProcess.getCommand()
+	 */
+	public void invalidate(String command){
+		synchronized(this.entries){
+			Iterator<CommandKey> keys = this.entries.keySet().iterator();
+			while(keys.hasNext()){
+				if(keys.next().getCommand().equals(command)){
+					keys.remove();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Remove all cached results, the statistics are kept
+	 */
+	public void clear(){
+		synchronized(this.entries){
+			this.entries.clear();
+		}
+	}
+
+
+	/**
+	 * Get the number of cached results, including expired ones that have not been removed yet
+	 *
+	 * @return
+	 * 		The number of entries
+	 */
+	public int size(){
+		synchronized(this.entries){
+			return this.entries.size();
+		}
+	}
+
+
+	/**
+	 * Get the maximum number of cached results
+	 *
+	 * @return
+	 * 		The capacity of the cache
+	 */
+	public int getMaxEntries(){
+		return this.maxEntries;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of lookups served from the cache
+	 */
+	public long getHits(){
+		synchronized(this.entries){
+			return this.hits;
+		}
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of lookups that found no valid result and executed the command
+	 */
+	public long getMisses(){
+		synchronized(this.entries){
+			return this.misses;
+		}
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of results removed because the cache was full
+	 */
+	public long getEvictions(){
+		synchronized(this.entries){
+			return this.evictions;
+		}
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of results removed because their time to live passed
+	 */
+	public long getExpirations(){
+		synchronized(this.entries){
+			return this.expirations;
+		}
+	}
+
+
+	/**
+	 * Get the fraction of lookups served from the cache
+	 *
+	 * @return
+	 * 		The hit rate between 0 and 1, 0 if there were no lookups
+	 */
+	public double getHitRate(){
+		synchronized(this.entries){
+			long lookups = this.hits + this.misses;
+			return lookups == 0 ? 0 : (double) this.hits / lookups;
+		}
+	}
+
+
+	@Override
+	public String toString(){
+		synchronized(this.entries){
+			return "ResultCache[size=" + this.entries.size() + "/" + this.maxEntries + ", hits=" + this.hits
+					+ ", misses=" + this.misses + ", evictions=" + this.evictions + ", expirations=" + this.expirations + "]";
+		}
+	}
+
+
+	private static final class CachedResult{
+
+		private final SProcessResult result;
+		private final long expiresNanos;
+
+		CachedResult(SProcessResult result, long expiresNanos){
+			this.result = result;
+			this.expiresNanos = expiresNanos;
+		}
+	}
+
+}
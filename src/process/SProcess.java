@@ -1,10 +1,21 @@
 package process;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,19 +36,81 @@ public abstract class SProcess {
 	final Logger logger = LoggerFactory.getLogger(SProcess.class);	
 	
 	// Process tied to this SProcess, null if not yet executed by SProcessExecutor.
-	private Process process = null;
+	// Volatile: it is published last by setProcessHandle(), a thread that sees it also sees the state set before it.
+	private volatile Process process = null;
 	
-	// Normal output from process
-	private String resultHistory = "";
+	// Lock shared by both output buffers, notified when data arrives or a stream ends
+	private final Object outputLock = new Object();
 	
-	// Error output from process
-	private String errorHistory = "";
+	// Data read in the background from the process stdout and stderror, not yet consumed.
+	private final OutputBuffer normalOutput = new OutputBuffer(outputLock);
+	private final OutputBuffer errorOutput = new OutputBuffer(outputLock);
 	
-	//Buffered readers for the process stdout and stderror.
-	protected BufferedReader stdNormalOut;
-	protected BufferedReader stdError;
+	// Background readers are started at most once per stream
+	private boolean normalDrainerStarted = false;
+	private boolean errorDrainerStarted = false;
+	
+	// Completed once the process exited
+	private final CompletableFuture<SProcess> exit = new CompletableFuture<>();
+	
+	// Completed once the process exited and the streams read in the background are closed
+	private final CompletableFuture<SProcess> completion = new CompletableFuture<>();
+	
+	// Timing of the process, completionNanos is only valid once the completion future is done
+	private long startTimeMillis;
+	private long startNanos;
+	private long completionNanos;
+	private boolean completing = false;
+	
+	// Runs the background I/O tasks (stream readers, pipes), set by the SProcessExecutor
+	private volatile Executor ioExecutor = IOThreads.executorOf(IOThreads.platformThreads());
+	
+	// Number of characters of recent output kept for matching regex patterns, see setExpectWindow()
+	private volatile int expectWindow = 64 * 1024;
+	
+	// Shared pump reading the output streams instead of a task per stream, null if not used
+	private volatile IOPump ioPump = null;
+	
+	// Where the standard streams are connected to, applied when the SProcess is executed
+	private volatile StreamRedirect inputRedirect = StreamRedirect.pipe();
+	private volatile StreamRedirect normalOutputRedirect = StreamRedirect.pipe();
+	private volatile StreamRedirect errorOutputRedirect = StreamRedirect.pipe();
+	
+	// Lifecycle listeners, set by the SProcessExecutor. Nothing is tracked for them while this is empty.
+	static final SProcessListener[] NO_LISTENERS = new SProcessListener[0];
+	private SProcessListener[] listeners = NO_LISTENERS;
+	private long queuedNanos;
+	private long spawningNanos;
+	
+	// Byte counts for the listeners, null while no listeners are registered
+	private OutputTap normalTap = null;
+	private OutputTap errorTap = null;
+	private CountingOutputStream inputCounter = null;
+	
+	// Timeout of the process: negative to use the default of the executor, 0 for none
+	private volatile long timeoutNanos = -1;
+	private volatile boolean timedOut = false;
+	// Time between asking the process tree to terminate and killing it, set by the SProcessExecutor
+	private volatile long killGraceNanos = TimeUnit.SECONDS.toNanos(5);
+	
+	// The Processes.TREE_VARIABLE the process was started with, null if it was not set
+	private volatile String treeId = null;
+	
+	// Set when the execution is cancelled before the process is started, see SProcessExecutor.cancelStart()
+	private volatile boolean startCancelled = false;
+	
+	// Set once stdIn is written or an output stream is piped, the result of the process is then its own
+	private volatile boolean streamsConnected = false;
+	
+	// Resource usage sampling of the process, null if not sampled (see SProcessExecutor.setResourceSampling())
+	private volatile ResourceSampler.Sampling resourceSampling = null;
+	
+	//Buffered writer for the process stdin.
 	protected BufferedWriter stdInput;
 	
+	// The process stdin under stdInput, for byte writes. Writes to both are synchronized on stdInput.
+	private OutputStream stdInputStream;
+	
 	/**
 	 * This method must be implemented to return the desired command string
 	 * Examples:
@@ -60,219 +133,1509 @@ public abstract class SProcess {
 	 * The OS Type for this command
 	 * 
 	 */
-	public abstract SProcessExecutor.OS getOSType();
+	public abstract SProcessExecutor.OS getOSType();
+	
+	/**
+	 * This method can be overridden to run the command in a specific working directory.
+	 * 
+	 * @return
+	 * The working directory for this command, null (the default) for the working directory of the JVM
+	 * 
+	 */
+	public Path getWorkingDirectory(){
+		return null;
+	}
+	
+	/**
+	 * This method can be overridden to set environment variables for the command, on top of
+	 * the environment of the JVM.
+	 * Example:
+	 * 		- return Collections.singletonMap("LC_ALL", "C");
+	 * 
+	 * @return
+	 * The extra environment variables for this command, null (the default) for none
+	 * 
+	 */
+	public Map<String, String> getEnvironment(){
+		return null;
+	}
+	
+	/**
+	 * This method can be overridden to let the SProcessExecutor serve the results of this command from its
+	 * result cache (see SProcessExecutor.setResultCache()), for commands whose output only changes slowly.
+	 * Example:
+	 * 		- return 5000; for "git rev-parse HEAD"
+	 * 
+	 * @return
+	 * The time in milliseconds a result of this command stays valid, 0 (the default) to never cache it
+	 * 
+	 */
+	public long getCacheTimeToLive(){
+		return 0;
+	}
+	
+	/**
+	 * This method can be overridden to set the charset of the command: its output is decoded with it when
+	 * it is read as a String, and Strings written to its stdIn are encoded with it. The raw bytes are
+	 * available without decoding through readNormalOutput() and readErrorOutput().
+	 * Example:
+	 * 		- return StandardCharsets.UTF_8;
+	 * 
+	 * @return
+	 * The charset for this command, the default charset of the JVM by default
+	 * 
+	 */
+	public Charset getCharset(){
+		return Charset.defaultCharset();
+	}
+	
+	/**
+	 * This method is called by the SProcessExecutor to set the process connected to this SProcess
+	 * 
+	 * @param process the process connected to this command
+	 * 
+	 */
+	protected void setProcessHandle(Process process){
+		this.startTimeMillis = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
+		Charset charset = this.getCharset();
+		this.normalOutput.setCharset(charset);
+		this.errorOutput.setCharset(charset);
+		if(this.listeners.length > 0){
+			this.normalTap = new OutputTap(false);
+			this.errorTap = new OutputTap(true);
+			this.normalOutput.addListener(this.normalTap);
+			this.errorOutput.addListener(this.errorTap);
+			this.inputCounter = new CountingOutputStream(process.getOutputStream());
+			this.stdInputStream = this.inputCounter;
+		}else{
+			this.stdInputStream = process.getOutputStream();
+		}
+		this.stdInput = new BufferedWriter(new OutputStreamWriter(this.stdInputStream, charset));
+		this.process = process;
+		if(this.listeners.length > 0){
+			long pid = Processes.pid(process);
+			for(SProcessListener listener : this.listeners){
+				try{
+					listener.onSpawned(this, pid, this.spawningNanos - this.queuedNanos, this.startNanos - this.spawningNanos);
+				}catch(RuntimeException e){
+					logger.warn("SProcess listener failed: " + e);
+				}
+			}
+		}
+		boolean normalPiped = this.normalOutputRedirect.isPipe();
+		boolean errorPiped = this.errorOutputRedirect.isPipe();
+		synchronized(this.outputLock){
+			// Redirected streams are handled by the OS, there is nothing to read
+			this.normalDrainerStarted = !normalPiped;
+			this.errorDrainerStarted = !errorPiped;
+		}
+		if(!normalPiped){
+			this.normalOutput.markEOF();
+		}
+		if(!errorPiped){
+			this.errorOutput.markEOF();
+		}
+		if(this.drainOnStart() && (normalPiped || errorPiped)){
+			this.startDrainers();
+		}else{
+			// No reader will notice the exit
+			ProcessReaper.watch(this);
+		}
+	}
+	
+	
+	/**
+	 * Connect the stdIn of the process to a file, or give it an empty stdIn, instead of a pipe from the JVM.
+	 * The OS then feeds the input, writeToProcessStdIn() can no longer be used.
+	 * Must be set before the SProcess is executed.
+	 * 
+	 * @param redirect
+	 * 		The redirect, StreamRedirect.pipe() (the default), fromFile(), discard() or inherit()
+	 */
+	public void setInputRedirect(StreamRedirect redirect){
+		this.inputRedirect = checkRedirect(redirect, true);
+	}
+	
+	
+	/**
+	 * Connect the stdOut of the process to a file, or discard it, instead of reading it in the JVM.
+	 * The OS then writes the output, getNormalOutput() always returns an empty String.
+	 * Must be set before the SProcess is executed.
+	 * 
+	 * @param redirect
+	 * 		The redirect, StreamRedirect.pipe() (the default), toFile(), appendToFile(), discard() or inherit()
+	 */
+	public void setNormalOutputRedirect(StreamRedirect redirect){
+		this.normalOutputRedirect = checkRedirect(redirect, false);
+	}
+	
+	
+	/**
+	 * Connect the stdError of the process to a file, or discard it, instead of reading it in the JVM.
+	 * The OS then writes the output, getErrorOutput() always returns an empty String.
+	 * Must be set before the SProcess is executed.
+	 * 
+	 * @param redirect
+	 * 		The redirect, StreamRedirect.pipe() (the default), toFile(), appendToFile(), discard() or inherit()
+	 */
+	public void setErrorOutputRedirect(StreamRedirect redirect){
+		this.errorOutputRedirect = checkRedirect(redirect, false);
+	}
+	
+	
+	private StreamRedirect checkRedirect(StreamRedirect redirect, boolean input){
+		if(redirect == null){
+			throw new IllegalArgumentException("Redirect can not be null");
+		}
+		StreamRedirect.MODE mode = redirect.getMode();
+		if(input ? (mode == StreamRedirect.MODE.FILE || mode == StreamRedirect.MODE.APPEND) : mode == StreamRedirect.MODE.READ){
+			throw new IllegalArgumentException("Redirect " + redirect + " is not valid for " + (input ? "stdIn" : "an output stream"));
+		}
+		if(this.process != null){
+			throw new IllegalStateException("Redirects must be set before the SProcess is executed");
+		}
+		return redirect;
+	}
+	
+	
+	/**
+	 * Get where the stdIn of the process is connected to
+	 * 
+	 * @return
+	 * 		The stdIn redirect, StreamRedirect.pipe() by default
+	 */
+	public StreamRedirect getInputRedirect(){
+		return this.inputRedirect;
+	}
+	
+	
+	/**
+	 * Get where the stdOut of the process is connected to
+	 * 
+	 * @return
+	 * 		The stdOut redirect, StreamRedirect.pipe() by default
+	 */
+	public StreamRedirect getNormalOutputRedirect(){
+		return this.normalOutputRedirect;
+	}
+	
+	
+	/**
+	 * Get where the stdError of the process is connected to
+	 * 
+	 * @return
+	 * 		The stdError redirect, StreamRedirect.pipe() by default
+	 */
+	public StreamRedirect getErrorOutputRedirect(){
+		return this.errorOutputRedirect;
+	}
+	
+	
+	/**
+	 * Decide if the stdout and stderror of the process are read in the background as soon as it is started.
+	 * If not, a stream is only read once its output is requested.
+	 * 
+	 * @return
+	 * 		true to start reading both streams immediately
+	 */
+	boolean drainOnStart(){
+		return true;
+	}
+	
+	
+	/**
+	 * Start reading both the process stdout and stderror in the background, if not done yet.
+	 */
+	void startDrainers(){
+		boolean normal;
+		boolean error;
+		synchronized(this.outputLock){
+			normal = !this.normalDrainerStarted;
+			error = !this.errorDrainerStarted;
+			this.normalDrainerStarted = true;
+			this.errorDrainerStarted = true;
+		}
+		if(normal){
+			startDrainer(this.process.getInputStream(), this.normalOutput);
+		}
+		if(error){
+			startDrainer(this.process.getErrorStream(), this.errorOutput);
+		}
+	}
+	
+	
+	/**
+	 * Start reading the process stdout in the background, if not done yet.
+	 */
+	void startNormalDrainer(){
+		synchronized(this.outputLock){
+			if(this.normalDrainerStarted){
+				return;
+			}
+			this.normalDrainerStarted = true;
+		}
+		startDrainer(this.process.getInputStream(), this.normalOutput);
+	}
+	
+	
+	/**
+	 * Start reading the process stderror in the background, if not done yet.
+	 */
+	void startErrorDrainer(){
+		synchronized(this.outputLock){
+			if(this.errorDrainerStarted){
+				return;
+			}
+			this.errorDrainerStarted = true;
+		}
+		startDrainer(this.process.getErrorStream(), this.errorOutput);
+	}
+	
+	
+	/**
+	 * Claim the process stdout for a pipe, in one step with the check that it is not read yet so a concurrent
+	 * getNormalOutput() can not start a second reader on it. No output of the stream is captured.
+	 * 
+	 * @return
+	 * 		false if the stream is already being read
+	 */
+	boolean claimNormalStream(){
+		synchronized(this.outputLock){
+			if(this.normalDrainerStarted){
+				return false;
+			}
+			this.normalDrainerStarted = true;
+		}
+		this.streamsConnected = true;
+		this.normalOutput.markEOF();
+		return true;
+	}
+	
+	
+	/**
+	 * Claim the process stderror for a pipe, see claimNormalStream()
+	 * 
+	 * @return
+	 * 		false if the stream is already being read
+	 */
+	boolean claimErrorStream(){
+		synchronized(this.outputLock){
+			if(this.errorDrainerStarted){
+				return false;
+			}
+			this.errorDrainerStarted = true;
+		}
+		this.streamsConnected = true;
+		this.errorOutput.markEOF();
+		return true;
+	}
+	
+	
+	private void startDrainer(InputStream in, OutputBuffer out){
+		StreamDrainer drainer = new StreamDrainer(this.process, in, out, this::streamClosed);
+		IOPump pump = this.ioPump;
+		if(pump != null){
+			pump.register(drainer, this.ioExecutor);
+		}else{
+			this.ioExecutor.execute(drainer);
+		}
+	}
+	
+	
+	/**
+	 * Set the shared pump that reads the output streams of this SProcess, called by the SProcessExecutor
+	 * before the process handle is set. null to read every stream with its own task on the I/O executor.
+	 */
+	void setIOPump(IOPump pump){
+		this.ioPump = pump;
+	}
+	
+	
+	/**
+	 * Cancel the execution of this SProcess if it has not been started yet, see SProcessExecutor.cancelStart()
+	 */
+	void cancelStart(){
+		this.startCancelled = true;
+	}
+	
+	
+	/**
+	 * Check if the execution of this SProcess was cancelled before it was started
+	 */
+	boolean isStartCancelled(){
+		return this.startCancelled;
+	}
+	
+	
+	/**
+	 * Mark the stdIn of this SProcess as fed by another process
+	 */
+	void markStdInConnected(){
+		this.streamsConnected = true;
+	}
+	
+	
+	/**
+	 * Check if the result of this SProcess can be shared with identical SProcesses (ResultCache, single-flight).
+	 * Not the case when it writes its output to a file or to a stream of the JVM, reads the stdIn of the JVM,
+	 * or once its stdIn was written or one of its output streams was piped.
+	 */
+	boolean isShareable(){
+		return !this.streamsConnected && this.inputRedirect.isShareable()
+				&& this.normalOutputRedirect.isShareable() && this.errorOutputRedirect.isShareable();
+	}
+	
+	
+	/**
+	 * Set the executor running the background I/O tasks of this SProcess, called by the SProcessExecutor
+	 * before the process handle is set.
+	 */
+	void setIOExecutor(Executor executor){
+		this.ioExecutor = executor;
+	}
+	
+	
+	/**
+	 * Get the executor running the background I/O tasks of this SProcess
+	 */
+	Executor getIOExecutor(){
+		return this.ioExecutor;
+	}
+	
+	
+	/**
+	 * Get the process connected to this SProcess
+	 * 
+	 * @return
+	 * 		The process, null if not yet executed by a SProcessExecutor
+	 */
+	Process getProcess(){
+		return this.process;
+	}
+	
+	
+	/**
+	 * Called by a background reader when its stream is closed. Once all streams read in the background
+	 * are closed the process is normally exiting. The reader may be a shared IOPump worker, so it never waits
+	 * for the exit: a process that closed its streams but keeps running is handed to the ProcessReaper.
+	 */
+	private void streamClosed(){
+		synchronized(this.outputLock){
+			if(!this.startedStreamsClosed()){
+				return;
+			}
+		}
+		if(this.process.isAlive()){
+			ProcessReaper.watch(this);
+		}else{
+			markExited();
+		}
+	}
+	
+	
+	/**
+	 * Mark the process as exited, called by the last background reader or by the ProcessReaper.
+	 * Can be called more than once, only the first call has an effect.
+	 */
+	void markExited(){
+		if(this.exit.complete(this) && this.listeners.length > 0){
+			long runNanos = System.nanoTime() - this.startNanos;
+			int exitCode = this.process.exitValue();
+			for(SProcessListener listener : this.listeners){
+				try{
+					listener.onExit(this, exitCode, runNanos);
+				}catch(RuntimeException e){
+					logger.warn("SProcess listener failed: " + e);
+				}
+			}
+		}
+		boolean complete;
+		synchronized(this.outputLock){
+			complete = !this.completing && this.startedStreamsClosed();
+			if(complete){
+				this.completing = true;
+				this.completionNanos = System.nanoTime();
+			}
+		}
+		if(complete){
+			if(this.listeners.length > 0){
+				fireCompleted();
+			}
+			this.completion.complete(this);
+		}
+	}
+	
+	
+	private void fireCompleted(){
+		int exitCode = this.process.exitValue();
+		long totalNanos = this.completionNanos - this.startNanos;
+		for(SProcessListener listener : this.listeners){
+			try{
+				listener.onCompleted(this, exitCode, totalNanos, this.normalTap.bytes, this.errorTap.bytes, this.inputCounter.bytes);
+			}catch(RuntimeException e){
+				logger.warn("SProcess listener failed: " + e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Set the lifecycle listeners of this SProcess, called by the SProcessExecutor when it is submitted.
+	 */
+	void setListeners(SProcessListener[] listeners){
+		this.listeners = listeners;
+	}
+	
+	
+	/**
+	 * Mark the SProcess as submitted to the executor
+	 */
+	void markQueued(){
+		this.queuedNanos = System.nanoTime();
+		for(SProcessListener listener : this.listeners){
+			try{
+				listener.onQueued(this);
+			}catch(RuntimeException e){
+				logger.warn("SProcess listener failed: " + e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Mark the SProcess as admitted, its process is being started
+	 */
+	void markSpawning(){
+		this.spawningNanos = System.nanoTime();
+	}
+	
+	
+	/**
+	 * Mark the SProcess as failed to start
+	 */
+	void markFailed(Throwable cause){
+		for(SProcessListener listener : this.listeners){
+			try{
+				listener.onFailed(this, cause);
+			}catch(RuntimeException e){
+				logger.warn("SProcess listener failed: " + e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Counts the output of a stream and reports its first byte to the lifecycle listeners
+	 */
+	private final class OutputTap implements OutputListener{
+		
+		private final boolean error;
+		volatile long bytes = 0;
+		
+		OutputTap(boolean error){
+			this.error = error;
+		}
+		
+		@Override
+		public void onOutput(byte[] data, int offset, int length) {
+			if(this.bytes == 0 && length > 0){
+				long sinceSpawn = System.nanoTime() - SProcess.this.startNanos;
+				for(SProcessListener listener : SProcess.this.listeners){
+					try{
+						listener.onFirstOutput(SProcess.this, this.error, sinceSpawn);
+					}catch(RuntimeException e){
+						logger.warn("SProcess listener failed: " + e);
+					}
+				}
+			}
+			// Only written by the reader of the stream
+			this.bytes += length;
+		}
+	}
+	
+	
+	/**
+	 * Counts the bytes written to the stdin of the process for the lifecycle listeners
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream{
+		
+		volatile long bytes = 0;
+		
+		CountingOutputStream(OutputStream out){
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.bytes++;
+		}
+		
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			this.out.write(data, offset, length);
+			this.bytes += length;
+		}
+	}
+	
+	
+	private boolean startedStreamsClosed(){
+		return (!this.normalDrainerStarted || this.normalOutput.isClosed())
+				&& (!this.errorDrainerStarted || this.errorOutput.isClosed());
+	}
+	
+	
+	/**
+	 * Get a future that completes with this SProcess as soon as the process has exited,
+	 * its output may still be in transit.
+	 * 
+	 * NOTE: Dependent actions run on an internal thread, they should not block.
+	 * 
+	 * @return
+	 * 		The exit future of this SProcess
+	 */
+	public CompletableFuture<SProcess> onExit(){
+		return this.exit;
+	}
+	
+	
+	/**
+	 * Get a future that completes with this SProcess once the process has exited and all of its output
+	 * that is read in the background has been received. Output that is piped to another process
+	 * is not waited for.
+	 * 
+	 * NOTE: Dependent actions run on the thread that received the last output, they should not block.
+	 * 
+	 * @return
+	 * 		The completion future of this SProcess
+	 */
+	public CompletableFuture<SProcess> onCompletion(){
+		return this.completion;
+	}
+	
+	
+	/**
+	 * Build the result of this SProcess, reading all output that has not been consumed yet.
+	 * Should only be called once the completion future is done.
+	 */
+	SProcessResult toResult(){
+		this.normalOutput.skipAll();
+		this.errorOutput.skipAll();
+		long completed;
+		synchronized(this.outputLock){
+			completed = this.completionNanos;
+		}
+		return new SProcessResult(this.getCommand(), this.process.exitValue(),
+				this.normalOutput.getHistoryTailView(), this.errorOutput.getHistoryTailView(), this.normalOutput.getCharset(),
+				this.startTimeMillis, completed - this.startNanos, this.timedOut, getResourceUsage());
+	}
+	
+	
+	/**
+	 * Get the status for this SProcess.
+	 * 
+	 * @return
+	 * NOT_YET_EXCECUTED: This SProcess has not yet been executed by the SProcessExecutor
+	 * WAITING_FOR_COMPLETION: This SProcess is currently processing
+	 * COMPLETED_NORMAL: normal completion
+	 * COMPLETED_ERROR: SProcess exited with a non zero error code. Use getExitCode() to view
+	 * TIMED_OUT: SProcess was destroyed because it did not exit before its timeout, see setTimeout()
+	 * 
+	 */
+	public STATUS getStatus(){
+		Process process = this.process;
+		if(process == null){
+			return STATUS.NOT_YET_EXCECUTED;
+		}else if(process.isAlive()){
+			return STATUS.WAITING_FOR_COMPLETION;
+		}else if(this.timedOut){
+			return STATUS.TIMED_OUT;
+		}else{
+			try{
+				if(process.exitValue() == 0){
+					return STATUS.COMPLETED_NORMAL;
+				}else{
+					return STATUS.COMPLETED_ERROR;
+				}
+			}catch(IllegalThreadStateException e){
+				return STATUS.WAITING_FOR_COMPLETION;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Get the exit code for this SProcess
+	 * 
+	 * @return
+	 * The exit code for this SProcess. null if none is available.
+	 * 
+	 */
+	public Integer getExitCode(){
+		Process process = this.process;
+		if(process == null)
+			return null;
+		try{
+			return process.exitValue();			
+		}catch(IllegalThreadStateException e){
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Get all the currently available, not read, normal output from the process (process stdout)
+	 * 
+	 * @return
+	 * 		The process stdOut.
+	 * 		An empty String if no output is available
+	 * 		null if the stdOut is not available (for example if it is piped to another process)
+	 * @throws SProcessNotYetStartedException 
+	 * 		If the Process has not yet been executed by a SProcessExecutor
+	 * 
+	 */
+	public String getNormalOutput() throws SProcessNotYetStartedException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.startNormalDrainer();
+		
+		return this.normalOutput.readString();
+	}
+	
+	
+	/**
+	 * Read currently available, not read, normal output from the process (process stdout) as raw bytes,
+	 * without decoding it. Does not wait for output, see awaitNormalOutput().
+	 * 
+	 * @param buffer
+	 * 		The array to copy the output into
+	 * @param offset
+	 * 		The index in the array of the first byte to copy
+	 * @param length
+	 * 		The maximum number of bytes to copy
+	 * @return
+	 * 		The number of bytes read, 0 if no output is available,
+	 * 		-1 if the stdOut is closed and all of it has been read (or it is not available, for example if it is piped to another process)
+	 * @throws SProcessNotYetStartedException 
+	 * 		If the Process has not yet been executed by a SProcessExecutor
+	 */
+	public int readNormalOutput(byte[] buffer, int offset, int length) throws SProcessNotYetStartedException{
+		return readNormalOutput(ByteBuffer.wrap(buffer, offset, length));
+	}
+	
+	
+	/**
+	 * Read currently available, not read, normal output from the process (process stdout) as raw bytes,
+	 * without decoding it. Does not wait for output, see awaitNormalOutput().
+	 * 
+	 * @param buffer
+	 * 		The buffer to copy the output into, up to its remaining space
+	 * @return
+	 * 		The number of bytes read, 0 if no output is available,
+	 * 		-1 if the stdOut is closed and all of it has been read (or it is not available, for example if it is piped to another process)
+	 * @throws SProcessNotYetStartedException 
+	 * 		If the Process has not yet been executed by a SProcessExecutor
+	 */
+	public int readNormalOutput(ByteBuffer buffer) throws SProcessNotYetStartedException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.startNormalDrainer();
+		
+		return this.normalOutput.readBytes(buffer);
+	}
+	
+	
+	/**
+	 * Get all data already read from the process stdOut, as far as it is kept by the history policy.
+	 * NOTE: Does not read any new data, data is read using getNormalOutput()
+	 * NOTE: Only the last 512MB of the history are decoded, use getNormalOutputHistoryBuffer() or getNormalOutputCapture()
+	 * 		for larger output.
+	 * 
+	 * @return
+	 * 		All data already read from the process stdOut, at most its last 512MB
+	 * 
+	 */
+	public String getNormalOutputHistory(){
+		return this.normalOutput.getHistoryString();
+	}
+	
+	
+	/**
+	 * Get a read-only view on the raw bytes already read from the process stdOut, as far as they are kept
+	 * by the history policy. The bytes are not copied, the view is a snapshot that does not change when
+	 * more output is read.
+	 * 
+	 * @return
+	 * 		A read-only buffer with the data already read from the process stdOut
+	 * 
+	 */
+	public ByteBuffer getNormalOutputHistoryBuffer(){
+		return this.normalOutput.getHistoryView();
+	}
+	
+	
+	/**
+	 * Get all the currently available, not read, error output from the process (process stdout)
+	 * 
+	 * @return
+	 * 		The process stdError.
+	 * 		An empty String if no output is available
+	 * 		null if the stdError is not available (for example if it is piped to another process)
+	 * @throws SProcessNotYetStartedException 
+	 * 		If the SProcess has not yet been executed by a SProcessExecutor
+	 * 
+	 */
+	public String getErrorOutput() throws SProcessNotYetStartedException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.startErrorDrainer();
+		
+		return this.errorOutput.readString();
+	}
+	
+	
+	/**
+	 * Read currently available, not read, error output from the process (process stderror) as raw bytes,
+	 * without decoding it. Does not wait for output, see awaitErrorOutput().
+	 * 
+	 * @param buffer
+	 * 		The array to copy the output into
+	 * @param offset
+	 * 		The index in the array of the first byte to copy
+	 * @param length
+	 * 		The maximum number of bytes to copy
+	 * @return
+	 * 		The number of bytes read, 0 if no output is available,
+	 * 		-1 if the stdError is closed and all of it has been read (or it is not available, for example if it is piped to another process)
+	 * @throws SProcessNotYetStartedException 
+	 * 		If the Process has not yet been executed by a SProcessExecutor
+	 */
+	public int readErrorOutput(byte[] buffer, int offset, int length) throws SProcessNotYetStartedException{
+		return readErrorOutput(ByteBuffer.wrap(buffer, offset, length));
+	}
+	
+	
+	/**
+	 * Read currently available, not read, error output from the process (process stderror) as raw bytes,
+	 * without decoding it. Does not wait for output, see awaitErrorOutput().
+	 * 
+	 * @param buffer
+	 * 		The buffer to copy the output into, up to its remaining space
+	 * @return
+	 * 		The number of bytes read, 0 if no output is available,
+	 * 		-1 if the stdError is closed and all of it has been read (or it is not available, for example if it is piped to another process)
+	 * @throws SProcessNotYetStartedException 
+	 * 		If the Process has not yet been executed by a SProcessExecutor
+	 */
+	public int readErrorOutput(ByteBuffer buffer) throws SProcessNotYetStartedException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.startErrorDrainer();
+		
+		return this.errorOutput.readBytes(buffer);
+	}
+	
+	
+	/**
+	 * Get all data already read from the process stdError.
+	 * NOTE: Does not read any new data, data is read using getErrorOutput()
+	 * NOTE: Only the last 512MB of the history are decoded, use getErrorOutputHistoryBuffer() or getErrorOutputCapture()
+	 * 		for larger output.
+	 * 
+	 * @return
+	 * 		All data already read from the process stdError, at most its last 512MB
+	 * 
+	 */
+	public String getErrorOutputHistory(){
+		return this.errorOutput.getHistoryString();
+	}
+	
+	
+	/**
+	 * Get a read-only view on the raw bytes already read from the process stdError, as far as they are kept
+	 * by the history policy. The bytes are not copied, the view is a snapshot that does not change when
+	 * more output is read.
+	 * 
+	 * @return
+	 * 		A read-only buffer with the data already read from the process stdError
+	 * 
+	 */
+	public ByteBuffer getErrorOutputHistoryBuffer(){
+		return this.errorOutput.getHistoryView();
+	}
+	
+	
+	/**
+	 * Set how much of the output that has been read is kept as history, for both stdOut and stdError.
+	 * The current history is trimmed to the new policy. The policy can be set before the SProcess is executed.
+	 * By default all output is kept.
+	 * 
+	 * @param policy
+	 * 		The history policy, see HistoryPolicy
+	 */
+	public void setHistoryPolicy(HistoryPolicy policy){
+		if(policy == null){
+			throw new IllegalArgumentException("History policy can not be null");
+		}
+		this.normalOutput.setHistoryPolicy(policy);
+		this.errorOutput.setHistoryPolicy(policy);
+	}
+	
+	
+	/**
+	 * Decide if the output of this SProcess is kept in memory for getNormalOutput() and getErrorOutput().
+	 * When it is not, the output is only pushed to the registered listeners and memory use stays constant
+	 * however much the process writes; getNormalOutput() and getErrorOutput() then always return an empty String.
+	 * Should be set before the SProcess is executed.
+	 * 
+	 * @param retained
+	 * 		false to only stream the output to listeners, true (the default) to also keep it
+	 */
+	public void setOutputRetained(boolean retained){
+		this.normalOutput.setRetainOutput(retained);
+		this.errorOutput.setRetainOutput(retained);
+	}
+
+
+	/**
+	 * Move the captured output of a stream to a temporary file in the default temporary directory once it grows
+	 * beyond the given number of bytes, so the heap use stays flat however much the process writes.
+	 * Only applies with an unbounded history policy. Read spilled output with getNormalOutputCapture() and
+	 * getErrorOutputCapture(), and delete the files with releaseCapturedOutput() once done.
+	 * Should be set before the SProcess is executed.
+	 *
+	 * @param threshold
+	 * 		The threshold in bytes per stream, 0 (the default) to always keep the output in memory
+	 */
+	public void setSpillThreshold(long threshold){
+		setSpillThreshold(threshold, null);
+	}
+
+
+	/**
+	 * Move the captured output of a stream to a temporary file in the given directory once it grows beyond
+	 * the given number of bytes, see setSpillThreshold(long).
+	 *
+	 * @param threshold
+	 * 		The threshold in bytes per stream, 0 to always keep the output in memory
+	 * @param directory
+	 * 		The directory for the temporary files, null for the default temporary directory
+	 */
+	public void setSpillThreshold(long threshold, Path directory){
+		this.normalOutput.setSpillThreshold(threshold, directory);
+		this.errorOutput.setSpillThreshold(threshold, directory);
+	}
+
+
+	/**
+	 * Get a snapshot of all output captured from the process stdOut: the history and the data not read yet.
+	 * The bytes are not copied or decoded, they can be read at random positions, streamed or mapped.
+	 * NOTE: Does not consume any data, getNormalOutput() still returns the unread part.
+	 *
+	 * @return
+	 * 		The captured stdOut
+	 *
+	 */
+	public CapturedOutput getNormalOutputCapture(){
+		return new CapturedOutput(this.normalOutput);
+	}
+
+
+	/**
+	 * Get a snapshot of all output captured from the process stdError: the history and the data not read yet.
+	 * NOTE: Does not consume any data, getErrorOutput() still returns the unread part.
+	 *
+	 * @return
+	 * 		The captured stdError
+	 *
+	 */
+	public CapturedOutput getErrorOutputCapture(){
+		return new CapturedOutput(this.errorOutput);
+	}
+
+
+	/**
+	 * Drop all output captured so far from both streams and delete their temporary files, if any.
+	 * Snapshots taken earlier become invalid. Output arriving later on is captured as usual.
+	 */
+	public void releaseCapturedOutput(){
+		this.normalOutput.release();
+		this.errorOutput.release();
+	}
+	
+	
+	/**
+	 * Register a listener that receives the stdOut of the process chunk by chunk as it arrives.
+	 * Register listeners before the SProcess is executed to receive all output.
+	 * 
+	 * @param listener
+	 * 		The listener to call for every chunk of stdOut
+	 */
+	public void addNormalOutputListener(OutputListener listener){
+		this.normalOutput.addListener(listener);
+	}
+	
+	
+	/**
+	 * Register a listener that receives the stdError of the process chunk by chunk as it arrives.
+	 * Register listeners before the SProcess is executed to receive all output.
+	 * 
+	 * @param listener
+	 * 		The listener to call for every chunk of stdError
+	 */
+	public void addErrorOutputListener(OutputListener listener){
+		this.errorOutput.addListener(listener);
+	}
+	
+	
+	/**
+	 * Register a listener that receives the stdOut of the process line by line, split on "\n".
+	 * 
+	 * @param listener
+	 * 		The listener to call for every line of stdOut
+	 */
+	public void addNormalLineListener(LineListener listener){
+		addNormalLineListener(listener, "\n");
+	}
+	
+	
+	/**
+	 * Register a listener that receives the stdOut of the process record by record, split on the given delimiter.
+	 * 
+	 * @param listener
+	 * 		The listener to call for every record of stdOut
+	 * @param delimiter
+	 * 		The record delimiter, for example "\0" or "\r\n"
+	 */
+	public void addNormalLineListener(LineListener listener, String delimiter){
+		this.normalOutput.addListener(new LineSplitter(listener, delimiter, this.getCharset()));
+	}
+	
+	
+	/**
+	 * Register a listener that receives the stdError of the process line by line, split on "\n".
+	 * 
+	 * @param listener
+	 * 		The listener to call for every line of stdError
+	 */
+	public void addErrorLineListener(LineListener listener){
+		addErrorLineListener(listener, "\n");
+	}
+	
+	
+	/**
+	 * Register a listener that receives the stdError of the process record by record, split on the given delimiter.
+	 * 
+	 * @param listener
+	 * 		The listener to call for every record of stdError
+	 * @param delimiter
+	 * 		The record delimiter, for example "\0" or "\r\n"
+	 */
+	public void addErrorLineListener(LineListener listener, String delimiter){
+		this.errorOutput.addListener(new LineSplitter(listener, delimiter, this.getCharset()));
+	}
+	
+	
+	/**
+	 * Remove a chunk listener from both stdOut and stdError
+	 * 
+	 * @param listener
+	 * 		The listener to remove
+	 */
+	public void removeOutputListener(OutputListener listener){
+		this.normalOutput.removeListener(listener);
+		this.errorOutput.removeListener(listener);
+	}
+	
+	
+	/**
+	 * Get the history policy of this SProcess
+	 * 
+	 * @return
+	 * 		The history policy, unbounded by default
+	 */
+	public HistoryPolicy getHistoryPolicy(){
+		return this.normalOutput.getHistoryPolicy();
+	}
+	
+	
+	/**
+	 * Write the input String into the standard input for the process spawned by the shell command.
+	 * 
+	 * @param input
+	 * 		The String to feed into the stdInput of the process spawned by the shell command
+	 * @throws SProcessNotYetStartedException
+	 * 		The command has not yet been executed by a SProcessExecutor
+	 * @throws IOException
+	 * 		An IOException occurred while writing to the stdInput
+	 */
+	public void writeToProcessStdIn(String input) throws SProcessNotYetStartedException, IOException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.streamsConnected = true;
+		// Keep concurrent writes whole, each one is flushed before the next starts
+		synchronized(this.stdInput){
+			this.stdInput.write(input);
+			this.stdInput.flush();
+		}
+	}
+	
+	
+	/**
+	 * Write the given bytes into the standard input of the process, without any encoding.
+	 * 
+	 * @param input
+	 * 		The bytes to feed into the stdInput of the process
+	 * @throws SProcessNotYetStartedException
+	 * 		The command has not yet been executed by a SProcessExecutor
+	 * @throws IOException
+	 * 		An IOException occurred while writing to the stdInput
+	 */
+	public void writeToProcessStdIn(byte[] input) throws SProcessNotYetStartedException, IOException{
+		writeToProcessStdIn(input, 0, input.length);
+	}
+	
 	
 	/**
-	 * This method is called by the SProcessExecutor to set the process connected to this SProcess
-	 * 
-	 * @param process the process connected to this command
+	 * Write a range of the given bytes into the standard input of the process, without any encoding.
 	 * 
+	 * @param input
+	 * 		The array holding the bytes to feed into the stdInput of the process
+	 * @param offset
+	 * 		The index of the first byte to write
+	 * @param length
+	 * 		The number of bytes to write
+	 * @throws SProcessNotYetStartedException
+	 * 		The command has not yet been executed by a SProcessExecutor
+	 * @throws IOException
+	 * 		An IOException occurred while writing to the stdInput
 	 */
-	protected void setProcessHandle(Process process){
-		this.process = process;
-		this.stdNormalOut = new BufferedReader(new InputStreamReader(this.process.getInputStream()));
-		this.stdError = new BufferedReader(new InputStreamReader(this.process.getErrorStream()));
-		this.stdInput = new BufferedWriter(new OutputStreamWriter(this.process.getOutputStream()));
+	public void writeToProcessStdIn(byte[] input, int offset, int length) throws SProcessNotYetStartedException, IOException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.streamsConnected = true;
+		synchronized(this.stdInput){
+			this.stdInputStream.write(input, offset, length);
+			this.stdInputStream.flush();
+		}
 	}
 	
 	
 	/**
-	 * Get the status for this SProcess.
+	 * Pump everything from the given source into the standard input of the process, in the background on the
+	 * IO executor of this SProcess (see setIOExecutor()). Data is written in chunks of the buffer size of the
+	 * source and only flushed at the end, and stdIn is closed once the source is exhausted unless the source
+	 * keeps it open. Writes of writeToProcessStdIn() done in the meantime are kept whole, but may land between
+	 * two chunks.
+	 * NOTE: A file known before the process is started is fed by the OS without copying, see StreamRedirect.fromFile().
 	 * 
+	 * @param source
+	 * 		The data to feed into the stdInput of the process
 	 * @return
-	 * NOT_YET_EXCECUTED: This SProcess has not yet been executed by the SProcessExecutor
-	 * WAITING_FOR_COMPLETION: This SProcess is currently processing
-	 * COMPLETED_NORMAL: normal completion
-	 * COMPLETED_ERROR: SProcess exited with a non zero error code. Use getExitCode() to view
-	 * 
+	 * 		A future completing with the number of bytes fed, or exceptionally if reading the source or writing
+	 * 		to the process failed (for example because the process exited before reading all of its input)
+	 * @throws SProcessNotYetStartedException
+	 * 		The command has not yet been executed by a SProcessExecutor
 	 */
-	public STATUS getStatus(){
+	public CompletableFuture<Long> feedStdIn(InputSource source) throws SProcessNotYetStartedException{
 		if(this.process == null){
-			return STATUS.NOT_YET_EXCECUTED;
-		}else if(this.process.isAlive()){
-			return STATUS.WAITING_FOR_COMPLETION;
-		}else{
-			try{
-				if(process.exitValue() == 0){
-					return STATUS.COMPLETED_NORMAL;
-				}else{
-					return STATUS.COMPLETED_ERROR;
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.streamsConnected = true;
+		CompletableFuture<Long> fed = new CompletableFuture<>();
+		this.ioExecutor.execute(() -> {
+			long total = 0;
+			try(InputSource.Chunks chunks = source.open()){
+				ByteBuffer scratch = ByteBuffer.allocate(source.getBufferSize());
+				ByteBuffer chunk;
+				while((chunk = chunks.next(scratch)) != null){
+					total += writeChunk(chunk, scratch);
+					((Buffer) scratch).clear();
+				}
+				synchronized(this.stdInput){
+					if(source.isCloseOnEOF()){
+						this.stdInput.close();
+					}else{
+						this.stdInputStream.flush();
+					}
+				}
+				fed.complete(total);
+			}catch(IOException | RuntimeException e){
+				this.logger.debug("Feeding " + source + " into the stdIn of " + getCommand() + " failed after " + total + " bytes: " + e);
+				fed.completeExceptionally(e);
+			}
+		});
+		return fed;
+	}
+	
+	
+	private int writeChunk(ByteBuffer chunk, ByteBuffer scratch) throws IOException{
+		int length = chunk.remaining();
+		synchronized(this.stdInput){
+			if(chunk.hasArray()){
+				this.stdInputStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+			}else{
+				// Direct buffers are copied through the heap scratch buffer
+				byte[] bytes = scratch.array();
+				while(chunk.hasRemaining()){
+					int part = Math.min(chunk.remaining(), bytes.length);
+					chunk.get(bytes, 0, part);
+					this.stdInputStream.write(bytes, 0, part);
 				}
-			}catch(IllegalThreadStateException e){
-				return STATUS.WAITING_FOR_COMPLETION;
 			}
 		}
+		return length;
 	}
 	
 	
 	/**
-	 * Get the exit code for this SProcess
-	 * 
-	 * @return
-	 * The exit code for this SProcess. null if none is available.
+	 * Close the standard input of the process, so it sees the end of its input.
 	 * 
+	 * @throws SProcessNotYetStartedException
+	 * 		The command has not yet been executed by a SProcessExecutor
+	 * @throws IOException
+	 * 		An IOException occurred while closing the stdInput
 	 */
-	public Integer getExitCode(){
-		if(this.process == null)
-			return null;
-		try{
-			return process.exitValue();			
-		}catch(IllegalThreadStateException e){
-			return null;
+	public void closeProcessStdIn() throws SProcessNotYetStartedException, IOException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		synchronized(this.stdInput){
+			this.stdInput.close();
 		}
 	}
 	
 	
 	/**
-	 * Get all the currently available, not read, normal output from the process (process stdout)
+	 * Wait until the child process has data available on its stdOut or stdError, until both streams
+	 * are closed (normally because the process exited) or until the timeout expires.
+	 * The calling thread sleeps while waiting, it is woken up by the background readers of the streams.
 	 * 
+	 * @param timeout
+	 * 		The maximum time to wait
+	 * @param unit
+	 * 		The unit of the timeout argument
 	 * @return
-	 * 		The process stdOut.
-	 * 		An empty String if no output is available
-	 * 		null if the stdOut is not available (for example if it is piped to another process)
-	 * @throws SProcessNotYetStartedException 
-	 * 		If the Process has not yet been executed by a SProcessExecutor
-	 * 
+	 * 		NORMAL_OUTPUT: data is available on stdOut, read it with getNormalOutput()
+	 * 		ERROR_OUTPUT: data is available on stdError, read it with getErrorOutput()
+	 * 		CLOSED: both streams are closed and all their data has been read
+	 * 		TIMEOUT: nothing happened before the timeout expired
+	 * @throws SProcessNotYetStartedException
+	 * 		The SProcess has not yet been executed by a SProcessExecutor
+	 * @throws InterruptedException
+	 * 		The current thread was interrupted while waiting
+	 * @throws IOException
+	 * 		The output streams are not available (for example if they are piped to another process)
 	 */
-	public String getNormalOutput() throws SProcessNotYetStartedException{
-		if(this.process == null || this.stdNormalOut == null){
+	public OUTPUT_EVENT awaitOutput(long timeout, TimeUnit unit) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(this.process == null){
 			throw new SProcessNotYetStartedException(this);
 		}
+		this.startDrainers();
 		
-		String output = "";
-		char ch;
-		try {
-			while (this.stdNormalOut.ready()) {
-				ch = (char) this.stdNormalOut.read();
-			    output= output + ch;
+		long remaining = unit.toNanos(timeout);
+		long deadline = System.nanoTime() + remaining;
+		synchronized(this.outputLock){
+			while(true){
+				if(this.normalOutput.hasData()){
+					return OUTPUT_EVENT.NORMAL_OUTPUT;
+				}
+				if(this.errorOutput.hasData()){
+					return OUTPUT_EVENT.ERROR_OUTPUT;
+				}
+				if(this.normalOutput.isDrained() && this.errorOutput.isDrained()){
+					return OUTPUT_EVENT.CLOSED;
+				}
+				if(remaining <= 0){
+					return OUTPUT_EVENT.TIMEOUT;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this.outputLock, remaining);
+				remaining = deadline - System.nanoTime();
 			}
-		} catch (IOException e) {
-			logger.warn(e.getMessage());
 		}
-		this.resultHistory = this.resultHistory + output;
-		return output;
 	}
 	
 	
 	/**
-	 * Get all data already read from the process stdOut.
-	 * NOTE: Does not read any new data, data is read using getNormalOutput()
+	 * Wait until the child process has data available on its stdOut, until the stdOut is closed
+	 * or until the timeout expires.
 	 * 
+	 * @param timeout
+	 * 		The maximum time to wait
+	 * @param unit
+	 * 		The unit of the timeout argument
 	 * @return
-	 * 		All data already read from the process stdOut
-	 * 
+	 * 		true if data is available on the stdOut
+	 * 		false if the stdOut is closed or the timeout expired
+	 * @throws SProcessNotYetStartedException
+	 * 		The SProcess has not yet been executed by a SProcessExecutor
+	 * @throws InterruptedException
+	 * 		The current thread was interrupted while waiting
+	 * @throws IOException
+	 * 		The stdOut is not available (for example if it is piped to another process)
 	 */
-	public String getNormalOutputHistory(){
-		return this.resultHistory;
+	public boolean awaitNormalOutput(long timeout, TimeUnit unit) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.startNormalDrainer();
+		return awaitData(this.normalOutput, unit.toNanos(timeout));
 	}
 	
 	
 	/**
-	 * Get all the currently available, not read, error output from the process (process stdout)
+	 * Wait until the child process has data available on its stdError, until the stdError is closed
+	 * or until the timeout expires.
 	 * 
+	 * @param timeout
+	 * 		The maximum time to wait
+	 * @param unit
+	 * 		The unit of the timeout argument
 	 * @return
-	 * 		The process stdError.
-	 * 		An empty String if no output is available
-	 * 		null if the stdError is not available (for example if it is piped to another process)
-	 * @throws SProcessNotYetStartedException 
-	 * 		If the SProcess has not yet been executed by a SProcessExecutor
-	 * 
+	 * 		true if data is available on the stdError
+	 * 		false if the stdError is closed or the timeout expired
+	 * @throws SProcessNotYetStartedException
+	 * 		The SProcess has not yet been executed by a SProcessExecutor
+	 * @throws InterruptedException
+	 * 		The current thread was interrupted while waiting
+	 * @throws IOException
+	 * 		The stdError is not available (for example if it is piped to another process)
 	 */
-	public String getErrorOutput() throws SProcessNotYetStartedException{
-		if(this.process == null || this.stdError == null){
+	public boolean awaitErrorOutput(long timeout, TimeUnit unit) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(this.process == null){
 			throw new SProcessNotYetStartedException(this);
 		}
-		
-		String output = "";
-		char ch;
-		try {
-			while (this.stdError.ready()) {
-				ch = (char) this.stdError.read();
-			    output= output + ch;
-			}
-		} catch (IOException e) {
-			logger.warn(e.getMessage());
-		}
-		this.errorHistory = this.errorHistory + output;
-		return output;
+		this.startErrorDrainer();
+		return awaitData(this.errorOutput, unit.toNanos(timeout));
 	}
 	
 	
 	/**
-	 * Get all data already read from the process stdError.
-	 * NOTE: Does not read any new data, data is read using getErrorOutput()
+	 * Wait until the stdOut of the process matches one of the given patterns, until the stdOut is closed or
+	 * until the timeout expires. The unread output is scanned as it arrives, each byte once. Scanned output
+	 * that can no longer be part of a match is consumed right away, so memory use is bounded by the history
+	 * policy (see setHistoryPolicy()) and the expect window (see setExpectWindow()).
+	 * On a match the output up to and including the match is consumed, the output after it is left for the next
+	 * read or expect. Should not be mixed with concurrent reads of the stdOut from other threads.
 	 * 
+	 * @param timeout
+	 * 		The maximum time to wait
+	 * @param unit
+	 * 		The unit of the timeout argument
+	 * @param patterns
+	 * 		The literals and regular expressions to wait for
 	 * @return
-	 * 		All data already read from the process stdOut
-	 * 
+	 * 		The match, or the reason there was none (TIMEOUT or CLOSED)
+	 * @throws SProcessNotYetStartedException
+	 * 		The SProcess has not yet been executed by a SProcessExecutor
+	 * @throws InterruptedException
+	 * 		The current thread was interrupted while waiting
+	 * @throws IOException
+	 * 		The stdOut is not available (for example if it is piped to another process, or not retained)
 	 */
-	public String getErrorOutputHistory(){
-		return this.errorHistory;
+	public ExpectMatch expectNormal(long timeout, TimeUnit unit, ExpectPattern... patterns) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		this.startNormalDrainer();
+		return expect(this.normalOutput, unit.toNanos(timeout), patterns);
 	}
 	
 	
 	/**
-	 * Write the input String into the standard input for the process spawned by the shell command.
+	 * Wait until the stdError of the process matches one of the given patterns, see expectNormal()
 	 * 
-	 * @param input
-	 * 		The String to feed into the stdInput of the process spawned by the shell command
+	 * @param timeout
+	 * 		The maximum time to wait
+	 * @param unit
+	 * 		The unit of the timeout argument
+	 * @param patterns
+	 * 		The literals and regular expressions to wait for
+	 * @return
+	 * 		The match, or the reason there was none (TIMEOUT or CLOSED)
 	 * @throws SProcessNotYetStartedException
-	 * 		The command has not yet been executed by a SProcessExecutor
+	 * 		The SProcess has not yet been executed by a SProcessExecutor
+	 * @throws InterruptedException
+	 * 		The current thread was interrupted while waiting
 	 * @throws IOException
-	 * 		An IOException occurred while writing to the stdInput
+	 * 		The stdError is not available (for example if it is piped to another process, or not retained)
 	 */
-	//TODO: Overload method for byte input
-	public void writeToProcessStdIn(String input) throws SProcessNotYetStartedException, IOException{
+	public ExpectMatch expectError(long timeout, TimeUnit unit, ExpectPattern... patterns) throws SProcessNotYetStartedException, InterruptedException, IOException{
 		if(this.process == null){
 			throw new SProcessNotYetStartedException(this);
 		}
-		this.stdInput.write(input);
-		this.stdInput.flush();
+		this.startErrorDrainer();
+		return expect(this.errorOutput, unit.toNanos(timeout), patterns);
+	}
+	
+	
+	/**
+	 * Set the number of characters of recent output that regex patterns of expectNormal() and expectError()
+	 * are matched against. A regex match must fit in the window, literals are not limited by it.
+	 * 
+	 * @param characters
+	 * 		The window size, 64K characters by default
+	 */
+	public void setExpectWindow(int characters){
+		if(characters <= 0){
+			throw new IllegalArgumentException("Expect window must be positive: " + characters);
+		}
+		this.expectWindow = characters;
 	}
 	
 	
 	/**
-	 * This method actively waits until the child process has data available:
+	 * @return
+	 * 		The number of characters of recent output regex patterns are matched against
+	 */
+	public int getExpectWindow(){
+		return this.expectWindow;
+	}
+	
+	
+	private ExpectMatch expect(OutputBuffer buffer, long remaining, ExpectPattern[] patterns) throws InterruptedException, IOException{
+		if(patterns.length == 0){
+			throw new IllegalArgumentException("Expect needs at least one pattern");
+		}
+		if(!buffer.isRetained()){
+			throw new IOException("Output is not retained, it can not be matched (see setOutputRetained())");
+		}
+		long deadline = System.nanoTime() + remaining;
+		long start = buffer.getCursor();
+		long scanned = start;
+		ExpectScanner scanner = new ExpectScanner(Arrays.asList(patterns), this.getCharset(), this.expectWindow, scanned);
+		ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+		while(true){
+			boolean closed = false;
+			((Buffer) chunk).clear();
+			synchronized(this.outputLock){
+				// Only the bytes that arrived since the last chunk are copied and scanned
+				while(buffer.read(scanned, chunk) <= 0){
+					if(buffer.isClosed()){
+						closed = true;
+						break;
+					}
+					if(remaining <= 0){
+						return ExpectMatch.timeout();
+					}
+					TimeUnit.NANOSECONDS.timedWait(this.outputLock, remaining);
+					remaining = deadline - System.nanoTime();
+				}
+			}
+			((Buffer) chunk).flip();
+			scanned += chunk.remaining();
+			ExpectScanner.Found found = scanner.feed(chunk, closed);
+			if(found != null){
+				String before;
+				synchronized(this.outputLock){
+					long from = Math.max(start, buffer.getCaptureStart());
+					before = buffer.decode(from, Math.max(from, found.startPosition));
+					buffer.consumeTo(found.endPosition);
+				}
+				return ExpectMatch.matched(found.index, patterns[found.index], before, found.groups);
+			}
+			// Output that can no longer be part of a match is consumed, so it is not held as unread data
+			buffer.consumeTo(scanner.getWindowStart());
+			if(closed){
+				return ExpectMatch.closed();
+			}
+			remaining = deadline - System.nanoTime();
+			if(remaining <= 0){
+				return ExpectMatch.timeout();
+			}
+		}
+	}
+	
+	
+	private boolean awaitData(OutputBuffer buffer, long remaining) throws InterruptedException{
+		long deadline = System.nanoTime() + remaining;
+		synchronized(this.outputLock){
+			while(true){
+				if(buffer.hasData()){
+					return true;
+				}
+				if(buffer.isDrained() || remaining <= 0){
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this.outputLock, remaining);
+				remaining = deadline - System.nanoTime();
+			}
+		}
+	}
+	
+	
+	/**
+	 * This method waits until the child process has data available:
 	 * 	- On its stdOut: returns true
 	 * 	- On its stdError: returns false
-	 * or 
+	 * The calling thread sleeps while waiting, see awaitOutput() for a variant with a timeout.
+	 * 
 	 * @return
+	 * 		true if data is available on stdOut, false if data is available on stdError
 	 * @throws IOException 
+	 * 		The process closed both streams without producing more output, or the wait was interrupted
 	 */
 	public boolean waitForOutput() throws IOException{
-		while(!this.stdNormalOut.ready() && !this.stdError.ready()){
-			// active waiting untill one is ready
-		}
-		if(this.stdNormalOut.ready()){
-			return true;
-		}else{
-			return false;
+		OUTPUT_EVENT event = awaitForever(() -> awaitOutput(Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+		if(event == OUTPUT_EVENT.CLOSED){
+			throw new IOException("Process closed its stdOut and stdError without producing more output");
 		}
+		return event == OUTPUT_EVENT.NORMAL_OUTPUT;
 	}
 	
 	
 	/**
-	 * This method actively waits until the child process has data available on its stdOut
+	 * This method waits until the child process has data available on its stdOut.
+	 * The calling thread sleeps while waiting, see awaitNormalOutput() for a variant with a timeout.
 	 * 
-	 * @return
 	 * @throws IOException 
+	 * 		The process closed its stdOut without producing more output, or the wait was interrupted
 	 */
 	public void waitForOutputNormal() throws IOException{
-		while(!this.stdNormalOut.ready()){
-			// active waiting untill data is available
+		boolean available = awaitForever(() -> awaitNormalOutput(Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+		if(!available){
+			throw new IOException("Process closed its stdOut without producing more output");
 		}
 	}
 	
 	
 	/**
-	 * This method actively waits until the child process has data available on its stdError
+	 * This method waits until the child process has data available on its stdError.
+	 * The calling thread sleeps while waiting, see awaitErrorOutput() for a variant with a timeout.
 	 * 
-	 * @return
 	 * @throws IOException 
+	 * 		The process closed its stdError without producing more output, or the wait was interrupted
 	 */
 	public void waitForOutputError() throws IOException{
-		while(!this.stdError.ready()){
-			// active waiting untill data is available
+		boolean available = awaitForever(() -> awaitErrorOutput(Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+		if(!available){
+			throw new IOException("Process closed its stdError without producing more output");
+		}
+	}
+	
+	
+	/**
+	 * Adapts the checked exceptions of the timed await methods to the IOException of the legacy wait methods.
+	 */
+	private interface Await<T>{
+		T await() throws SProcessNotYetStartedException, InterruptedException, IOException;
+	}
+	
+	private static <T> T awaitForever(Await<T> await) throws IOException{
+		try{
+			return await.await();
+		}catch(SProcessNotYetStartedException e){
+			throw new IOException(e.getMessage(), e);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for output");
 		}
 	}
 	
@@ -294,11 +1657,187 @@ public abstract class SProcess {
 	}
 	
 	
+	/**
+	 * Wait at most the given time for the process to exit, see Process.waitFor(long, TimeUnit).
+	 * 
+	 * @param timeout
+	 * 		The maximum time to wait
+	 * @param unit
+	 * 		The unit of the timeout argument
+	 * @return
+	 * 		true if the process exited, false if the timeout expired first
+	 * @throws SProcessNotYetStartedException 
+	 * 		The process has not yet been started
+	 * @throws InterruptedException
+	 * 		The current thread was interrupted while waiting for the process to finish
+	 */
+	public boolean waitForCompletion(long timeout, TimeUnit unit) throws SProcessNotYetStartedException, InterruptedException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		return this.process.waitFor(timeout, unit);
+	}
+	
+	
+	/**
+	 * Set the maximum time the process may run. When it expires the process and all of its descendants are
+	 * destroyed (see destroy()) and the SProcess gets the status TIMED_OUT.
+	 * Must be set before the SProcess is executed, it overrides the default timeout of the executor
+	 * (see SProcessExecutor.setDefaultTimeout()).
+	 * 
+	 * @param timeout
+	 * 		The maximum run time, 0 to let the process run forever
+	 * @param unit
+	 * 		The unit of the timeout argument
+	 */
+	public void setTimeout(long timeout, TimeUnit unit){
+		if(timeout < 0){
+			throw new IllegalArgumentException("Timeout can not be negative: " + timeout);
+		}
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+	
+	
+	/**
+	 * Get the maximum time the process may run
+	 * 
+	 * @param unit
+	 * 		The unit to return the timeout in
+	 * @return
+	 * 		The timeout, 0 if the process may run forever, negative if the default timeout of the executor applies
+	 */
+	public long getTimeout(TimeUnit unit){
+		long timeout = this.timeoutNanos;
+		return timeout < 0 ? -1 : unit.convert(timeout, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Check if the process was destroyed because it ran longer than its timeout
+	 * 
+	 * @return
+	 * 		true if the timeout expired
+	 */
+	public boolean isTimedOut(){
+		return this.timedOut;
+	}
+	
+	
+	/**
+	 * Get the resources used by the process so far, as sampled periodically while it runs when the executor
+	 * samples resource usage (see SProcessExecutor.setResourceSampling()). Once the process exited the usage
+	 * is final, it is the one of the last sample.
+	 * 
+	 * @return
+	 * 		The resource usage of the last sample, null if the process is not sampled or no sample was taken yet
+	 */
+	public ResourceUsage getResourceUsage(){
+		ResourceSampler.Sampling sampling = this.resourceSampling;
+		return sampling == null ? null : sampling.getUsage();
+	}
+	
+	
+	/**
+	 * Destroy the process and all of its descendants. They are asked to terminate first and are killed if they
+	 * are still running after the grace period of the executor (see SProcessExecutor.setKillGracePeriod()).
+	 * Does not wait for the process to exit.
+	 * 
+	 * NOTE: Descendants that outlived the process itself (for example commands put in the background by a
+	 * 		shell that already exited) are found on Linux by the SPROCESS_TREE_ID environment variable that the
+	 * 		executor gives every process it starts.
+	 * 
+	 * @throws SProcessNotYetStartedException 
+	 * 		The process has not yet been started
+	 */
+	public void destroy() throws SProcessNotYetStartedException{
+		if(this.process == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		terminate();
+	}
+	
+	
+	/**
+	 * Arm the timeout of the process, called by the SProcessExecutor once the process is started.
+	 * The deadline is cancelled as soon as the process exits.
+	 */
+	void armDeadline(long defaultTimeoutNanos, long killGraceNanos){
+		this.killGraceNanos = killGraceNanos;
+		long timeout = this.timeoutNanos >= 0 ? this.timeoutNanos : defaultTimeoutNanos;
+		if(timeout > 0){
+			// The timer thread only dispatches, scanning and signalling the process tree is slow
+			TimerWheel.Timeout deadline = TimerWheel.schedule(() -> this.ioExecutor.execute(this::deadlineExpired),
+					timeout, TimeUnit.NANOSECONDS);
+			this.exit.thenRun(deadline::cancel);
+		}
+	}
+	
+	
+	/**
+	 * Start sampling the resource usage of the process, called by the SProcessExecutor once the process is started.
+	 * Sampling stops as soon as the process exits.
+	 */
+	void startResourceSampling(long intervalNanos, boolean descendants){
+		ResourceSampler.Sampling sampling = ResourceSampler.register(this.process, intervalNanos, descendants);
+		if(sampling != null){
+			this.resourceSampling = sampling;
+			this.exit.thenRun(sampling::finish);
+		}
+	}
+	
+	
+	/**
+	 * Set the Processes.TREE_VARIABLE the process is started with, called by the SProcessExecutor
+	 * before the process handle is set.
+	 */
+	void setTreeId(String treeId){
+		this.treeId = treeId;
+	}
+	
+	
+	private void deadlineExpired(){
+		if(this.exit.isDone()){
+			return;
+		}
+		Processes.ProcessTree tree = Processes.tree(this.process, this.treeId);
+		if(tree.isEmpty()){
+			// Exited on its own, the exit is not marked yet
+			return;
+		}
+		this.timedOut = true;
+		logger.warn("Command \"" + this.getCommand() + "\" timed out, destroying it");
+		terminate(tree);
+	}
+	
+	
+	/**
+	 * Ask the process tree to terminate now, and kill what is left of it after the grace period
+	 */
+	void terminate(){
+		terminate(Processes.tree(this.process, this.treeId));
+	}
+	
+	
+	private void terminate(Processes.ProcessTree tree){
+		tree.destroy(false);
+		Executor executor = this.ioExecutor;
+		TimerWheel.schedule(() -> executor.execute(() -> tree.destroy(true)), this.killGraceNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	
 	/**
 	 * This enum represents the possible states a command can be in.
 	 */
 	public enum STATUS{
-		NOT_YET_EXCECUTED, WAITING_FOR_COMPLETION, COMPLETED_NORMAL, COMPLETED_ERROR;
+		NOT_YET_EXCECUTED, WAITING_FOR_COMPLETION, COMPLETED_NORMAL, COMPLETED_ERROR, TIMED_OUT;
+	}
+	
+	
+	/**
+	 * This enum represents the possible results of waiting for output with awaitOutput().
+	 */
+	public enum OUTPUT_EVENT{
+		NORMAL_OUTPUT, ERROR_OUTPUT, CLOSED, TIMEOUT;
 	}
 
 }
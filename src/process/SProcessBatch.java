@@ -0,0 +1,333 @@
+package process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A group of SProcesses executed with a limited parallelism, see SProcessExecutor.executeBatch().
+ *
+ * The batch keeps the given number of commands running: as soon as one completes the next one is started, so
+ * starting new processes overlaps with reading the output of running ones. Results are available per command
+ * (getFutures()), as a list in submission or completion order (getResults()), or one by one as they complete
+ * (next()).
+ *
+ * With fail-fast, the first command that exits with a non zero exit code or can not be started cancels the
+ * batch. Cancelling stops starting new commands and destroys the running ones; commands that were never started
+ * have a cancelled future.
+ *
+ * @author polle
+ *
+ */
+public final class SProcessBatch {
+
+	private final SProcessExecutor executor;
+	private final List<SProcess> commands;
+	private final int parallelism;
+	private final boolean failFast;
+	private final List<CompletableFuture<SProcessResult>> futures;
+
+	// Guarded by this batch
+	private final List<SProcessResult> completionOrder = new ArrayList<>();
+	private int nextToStart = 0;
+	private int finished = 0;
+	private int nextResult = 0;
+	private boolean cancelled = false;
+	private SProcessResult failedResult = null;
+	private Throwable failedCause = null;
+
+
+	SProcessBatch(SProcessExecutor executor, Collection<? extends SProcess> commands, int parallelism, boolean failFast){
+		if(parallelism < 1){
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		this.executor = executor;
+		this.commands = new ArrayList<>(commands);
+		this.parallelism = parallelism;
+		this.failFast = failFast;
+		List<CompletableFuture<SProcessResult>> futures = new ArrayList<>(this.commands.size());
+		for(int i = 0; i < this.commands.size(); i++){
+			futures.add(new CompletableFuture<>());
+		}
+		this.futures = Collections.unmodifiableList(futures);
+	}
+
+
+	/**
+	 * Start the first commands, up to the parallelism
+	 */
+	void start(){
+		for(int i = 0; i < this.parallelism; i++){
+			startNext();
+		}
+	}
+
+
+	private void startNext(){
+		while(true){
+			int index;
+			synchronized(this){
+				if(this.cancelled || this.nextToStart >= this.commands.size()){
+					return;
+				}
+				index = this.nextToStart++;
+			}
+			CompletableFuture<SProcessResult> future = this.executor.executeCommandAsync(this.commands.get(index));
+			if(!future.isDone()){
+				future.whenComplete((result, e) -> {
+					commandFinished(index, result, e);
+					startNext();
+				});
+				return;
+			}
+			// Done right away (rejected, cached), the next command is started by this loop instead of recursively
+			SProcessResult result = null;
+			Throwable error = null;
+			try{
+				result = future.join();
+			}catch(CompletionException | CancellationException e){
+				error = e;
+			}
+			commandFinished(index, result, error);
+		}
+	}
+
+
+	private void commandFinished(int index, SProcessResult result, Throwable e){
+		boolean fail;
+		if(e != null){
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			if(cause instanceof CancellationException){
+				// Withdrawn by cancel() before it was started
+				this.futures.get(index).cancel(false);
+			}else{
+				this.futures.get(index).completeExceptionally(cause);
+			}
+			synchronized(this){
+				fail = this.failFast && !this.cancelled;
+				if(fail){
+					this.failedCause = cause;
+				}
+			}
+		}else{
+			synchronized(this){
+				this.completionOrder.add(result);
+				fail = this.failFast && !this.cancelled && result.getExitCode() != 0;
+				if(fail){
+					this.failedResult = result;
+				}
+				this.notifyAll();
+			}
+			this.futures.get(index).complete(result);
+		}
+		if(fail){
+			cancel();
+		}
+		synchronized(this){
+			this.finished++;
+			this.notifyAll();
+		}
+	}
+
+
+	/**
+	 * Cancel the batch: commands that have not been started are cancelled, also the ones that were already
+	 * submitted but still wait for a slot of the executor (see SProcessExecutor.setConcurrencyLimit()).
+	 * Running processes are destroyed together with their descendants (see SProcess.destroy()).
+	 * Destroyed commands still complete, with the exit code of the destroyed process.
+	 */
+	public void cancel(){
+		List<SProcess> started;
+		synchronized(this){
+			if(this.cancelled){
+				return;
+			}
+			this.cancelled = true;
+			for(int i = this.nextToStart; i < this.commands.size(); i++){
+				this.futures.get(i).cancel(false);
+				this.finished++;
+			}
+			started = new ArrayList<>(this.commands.subList(0, this.nextToStart));
+			this.nextToStart = this.commands.size();
+			this.notifyAll();
+		}
+		// All withdrawn before any is destroyed, a destroyed process frees a slot for the next waiting one.
+		// Marked before the process is checked, a command that is being started now is destroyed by the executor.
+		for(SProcess command : started){
+			this.executor.cancelStart(command);
+		}
+		for(SProcess command : started){
+			Process process = command.getProcess();
+			if(process != null && process.isAlive()){
+				command.terminate();
+			}
+		}
+	}
+
+
+	/**
+	 * Wait until every command of the batch has completed, failed or been cancelled
+	 *
+	 * @throws InterruptedException
+	 * 		The thread was interrupted while waiting
+	 */
+	public synchronized void await() throws InterruptedException{
+		while(this.finished < this.commands.size()){
+			this.wait();
+		}
+	}
+
+
+	/**
+	 * Wait at most the given time until every command of the batch has completed, failed or been cancelled
+	 *
+	 * @param timeout
+	 * 		The maximum time to wait
+	 * @param unit
+	 * 		The unit of the timeout argument
+	 * @return
+	 * 		true if the batch is done, false if the timeout passed first
+	 * @throws InterruptedException
+	 * 		The thread was interrupted while waiting
+	 */
+	public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while(this.finished < this.commands.size()){
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0){
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Wait for the next result in completion order
+	 *
+	 * @return
+	 * 		The result of the next command to complete, null once all results have been returned.
+	 * 		Commands that failed to start or were cancelled have no result.
+	 * @throws InterruptedException
+	 * 		The thread was interrupted while waiting
+	 */
+	public synchronized SProcessResult next() throws InterruptedException{
+		while(this.nextResult >= this.completionOrder.size()){
+			if(this.finished >= this.commands.size()){
+				return null;
+			}
+			this.wait();
+		}
+		return this.completionOrder.get(this.nextResult++);
+	}
+
+
+	/**
+	 * Wait for the whole batch and get the results of all commands that ran.
+	 * Commands that failed to start or were cancelled have no result, see getFutures() for their cause.
+	 *
+	 * @param order
+	 * 		SUBMISSION for the order of the commands given to the batch, COMPLETION for the order they completed in
+	 * @return
+	 * 		The results
+	 * @throws InterruptedException
+	 * 		The thread was interrupted while waiting
+	 */
+	public List<SProcessResult> getResults(ORDER order) throws InterruptedException{
+		await();
+		if(order == ORDER.COMPLETION){
+			synchronized(this){
+				return new ArrayList<>(this.completionOrder);
+			}
+		}
+		List<SProcessResult> results = new ArrayList<>(this.futures.size());
+		for(CompletableFuture<SProcessResult> future : this.futures){
+			if(!future.isCompletedExceptionally()){
+				results.add(future.join());
+			}
+		}
+		return results;
+	}
+
+
+	/**
+	 * Get the futures of the commands, in submission order. The future of a command that could not be started
+	 * completes exceptionally, the future of a cancelled command is cancelled.
+	 *
+	 * @return
+	 * 		An unmodifiable list with a future per command
+	 */
+	public List<CompletableFuture<SProcessResult>> getFutures(){
+		return this.futures;
+	}
+
+
+	/**
+	 * Get the number of commands in this batch
+	 *
+	 * @return
+	 * 		The number of commands
+	 */
+	public int size(){
+		return this.commands.size();
+	}
+
+
+	/**
+	 * Get the number of commands that have completed, failed or been cancelled
+	 *
+	 * @return
+	 * 		The number of finished commands
+	 */
+	public synchronized int getFinishedCount(){
+		return this.finished;
+	}
+
+
+	/**
+	 * Check if the batch was cancelled, by cancel() or by fail-fast
+	 *
+	 * @return
+	 * 		true if the batch was cancelled
+	 */
+	public synchronized boolean isCancelled(){
+		return this.cancelled;
+	}
+
+
+	/**
+	 * Get the result that made a fail-fast batch cancel
+	 *
+	 * @return
+	 * 		The first result with a non zero exit code, null if the batch did not fail on an exit code
+	 */
+	public synchronized SProcessResult getFailedResult(){
+		return this.failedResult;
+	}
+
+
+	/**
+	 * Get the error that made a fail-fast batch cancel
+	 *
+	 * @return
+	 * 		The exception of the first command that could not be started, null if the batch did not fail on one
+	 */
+	public synchronized Throwable getFailedCause(){
+		return this.failedCause;
+	}
+
+
+	/**
+	 * This enum represents the possible orders of the results of a batch.
+	 */
+	public enum ORDER{
+		SUBMISSION, COMPLETION;
+	}
+
+}
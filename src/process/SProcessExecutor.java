@@ -1,7 +1,23 @@
 package process;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,7 +36,12 @@ public class SProcessExecutor {
 	/**
 	 * Map of OS types to SProcess executors, ensures only one executor per OS type.
 	 */
-	private static HashMap<OS, SProcessExecutor> singleton = new HashMap<>();
+	private static final ConcurrentHashMap<OS, SProcessExecutor> singleton = new ConcurrentHashMap<>();
+	
+	/**
+	 * OS type of the running system, detected once.
+	 */
+	private static final OS detectedOSType = detectOSType();
 	
 	// logger
 	final Logger logger = LoggerFactory.getLogger(SProcessExecutor.class);	
@@ -30,6 +51,64 @@ public class SProcessExecutor {
 	 */
 	private final OS OSType;
 	
+	/**
+	 * Limits the number of processes started by this executor that run at the same time.
+	 */
+	private final AdmissionController admission = new AdmissionController();
+	
+	/**
+	 * Runs the background I/O tasks (stream readers, pipes) of the processes started by this executor.
+	 */
+	private volatile Executor ioExecutor = IOThreads.executorOf(IOThreads.platformThreads());
+	
+	/**
+	 * Shared pump reading the output of the processes started by this executor, null if not used.
+	 */
+	private volatile IOPump ioPump = null;
+	
+	/**
+	 * Pool of warm shells running the commands of this executor, null if every command starts its own shell.
+	 */
+	private volatile ShellPool shellPool = null;
+	
+	/**
+	 * Execute commands that need no shell directly, without starting /bin/sh first.
+	 */
+	private volatile boolean directExec = false;
+	
+	/**
+	 * Lifecycle listeners, replaced as a whole when one is added or removed.
+	 */
+	private volatile SProcessListener[] listeners = SProcess.NO_LISTENERS;
+	
+	/**
+	 * Timeout of the SProcesses that do not set their own, 0 for none.
+	 */
+	private volatile long defaultTimeoutNanos = 0;
+	
+	/**
+	 * Time between asking a destroyed process tree to terminate and killing it.
+	 */
+	private volatile long killGraceNanos = TimeUnit.SECONDS.toNanos(5);
+	
+	/**
+	 * Time between resource usage samples of the started processes, 0 to not sample.
+	 */
+	private volatile long resourceSamplingNanos = 0;
+	private volatile boolean resourceSamplingDescendants = false;
+	
+	/**
+	 * Cache for the results of SProcesses with a time to live, null if not used.
+	 */
+	private volatile ResultCache resultCache = null;
+	
+	/**
+	 * Run identical SProcesses submitted while one of them is running only once, see setSingleFlightEnabled().
+	 */
+	private volatile boolean singleFlight = false;
+	private final ConcurrentHashMap<CommandKey, InFlight> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong coalesced = new AtomicLong();
+	
 	
 	/**
 	 * This is a private constructor. Access to this class should happen through getSProcessExecutor().
@@ -56,27 +135,33 @@ public class SProcessExecutor {
 	 * 		The OS type the command SProcess is designed for does not match the executor type
 	 * @throws IOException 
 	 * 		An IOException occurred while executing the command.
+	 * 		A SProcessRejectedException if the concurrency limit is reached and the wait queue is full.
 	 */
 	public void executeCommand(SProcess command) throws NonMatchingOSException, IOException{
-		if (command.getOSType() == this.OSType || command.getOSType() == OS.ANY){
-			try {
-				Process p = null;
-				// Check OS to enable piping support in linux and windows
-				if(this.OSType == OS.UNIX){
-					String[] commandarr = {"/bin/sh", "-c", command.getCommand()};
-					p = Runtime.getRuntime().exec(commandarr);
-				}else if(this.OSType == OS.WINDOWS){
-					String[] commandarr = {"cmd /C", command.getCommand()};
-					p = Runtime.getRuntime().exec(commandarr);
-				}else{
-					p = Runtime.getRuntime().exec(command.getCommand());
-				}
-				command.setProcessHandle(p);
-			} catch (IOException e) {
-				logger.error("IO exception while executing command \"" + command.getCommand() + "\"");
-				throw e;
-			}
-		}else{
+		checkOSType(command);
+		command.setListeners(this.listeners);
+		command.markQueued();
+		CompletableFuture<Void> admitted = this.admission.admit(command);
+		try{
+			admitted.get();
+		}catch(InterruptedException e){
+			this.admission.withdraw(admitted);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to execute command \"" + command.getCommand() + "\"");
+		}catch(ExecutionException e){
+			logger.warn(e.getCause().getMessage());
+			command.markFailed(e.getCause());
+			throw (IOException) e.getCause();
+		}
+		startAdmitted(command);
+	}
+	
+	
+	/**
+	 * Verify that the OS type of the SProcess matches this executor.
+	 */
+	private void checkOSType(SProcess command) throws NonMatchingOSException{
+		if (command.getOSType() != this.OSType && command.getOSType() != OS.ANY){
 			NonMatchingOSException OSExc = new NonMatchingOSException(this.OSType, command.getOSType());
 			logger.warn(OSExc.getMessage());
 			throw OSExc;
@@ -84,6 +169,627 @@ public class SProcessExecutor {
 	}
 	
 	
+	/**
+	 * Start a SProcess that was admitted by the admission control, its slot is released once it exits.
+	 */
+	private void startAdmitted(SProcess command) throws IOException{
+		command.markSpawning();
+		try {
+			Process p;
+			String treeId = null;
+			ShellPool pool = this.shellPool;
+			if(pool != null && pool.accepts(command)){
+				p = pool.start(command);
+			}else{
+				String[] direct = this.directExec && this.OSType == OS.UNIX ? DirectExec.argv(command.getCommand()) : null;
+				ProcessBuilder builder = new ProcessBuilder(direct != null ? direct : shellCommand(command));
+				if(command.getWorkingDirectory() != null){
+					builder.directory(command.getWorkingDirectory().toFile());
+				}
+				if(command.getEnvironment() != null){
+					builder.environment().putAll(command.getEnvironment());
+				}
+				// Inherited by all descendants, to still find them once they outlive the process
+				treeId = Processes.newTreeId();
+				builder.environment().put(Processes.TREE_VARIABLE, treeId);
+				builder.redirectInput(command.getInputRedirect().toProcessBuilderRedirect(true));
+				builder.redirectOutput(command.getNormalOutputRedirect().toProcessBuilderRedirect(false));
+				builder.redirectError(command.getErrorOutputRedirect().toProcessBuilderRedirect(false));
+				try{
+					p = builder.start();
+				}catch(IOException e){
+					if(direct == null){
+						throw e;
+					}
+					// Not found or not executable, let the shell report it like it would have
+					p = builder.command(shellCommand(command)).start();
+				}
+			}
+			command.setIOExecutor(this.ioExecutor);
+			command.setIOPump(this.ioPump);
+			command.setTreeId(treeId);
+			command.setProcessHandle(p);
+			command.armDeadline(this.defaultTimeoutNanos, this.killGraceNanos);
+			long sampling = this.resourceSamplingNanos;
+			if(sampling > 0){
+				command.startResourceSampling(sampling, this.resourceSamplingDescendants);
+			}
+		} catch (IOException e) {
+			this.admission.release();
+			logger.error("IO exception while executing command \"" + command.getCommand() + "\"");
+			command.markFailed(e);
+			throw e;
+		}
+		command.onExit().thenRun(this.admission::release);
+	}
+	
+	
+	/**
+	 * Get the arguments to start the shell running the command of the given SProcess
+	 */
+	private String[] shellCommand(SProcess command){
+		// Check OS to enable piping support in linux and windows
+		if(this.OSType == OS.UNIX){
+			return new String[]{"/bin/sh", "-c", command.getCommand()};
+		}else if(this.OSType == OS.WINDOWS){
+			return new String[]{"cmd /C", command.getCommand()};
+		}else{
+			// Split on whitespace like Runtime.exec(String)
+			StringTokenizer tokens = new StringTokenizer(command.getCommand());
+			String[] commandarr = new String[tokens.countTokens()];
+			for(int i = 0; i < commandarr.length; i++){
+				commandarr[i] = tokens.nextToken();
+			}
+			return commandarr;
+		}
+	}
+	
+	
+	/**
+	 * Execute the given SProcess asynchronously. The returned future completes with the result of the SProcess
+	 * as soon as the process has exited and all of its output has been read.
+	 * Both stdOut and stdError are read in the background, so the output of a SProcessPiped executed this
+	 * way can not be connected to a pipe.
+	 * 
+	 * NOTE: The future is completed on the thread that read the last output, dependent actions should not block.
+	 * 		Use executeCommandAsync(SProcess, Executor) to run them on an executor instead.
+	 * 
+	 * @param command
+	 * 		The SProcess object that must be executed on the system
+	 * @return
+	 * 		A future completing with the result of the SProcess, or exceptionally with a NonMatchingOSException
+	 * 		or IOException if the SProcess could not be executed (SProcessRejectedException if it was rejected,
+	 * 		see setConcurrencyLimit()).
+	 */
+	public CompletableFuture<SProcessResult> executeCommandAsync(SProcess command){
+		return executeShared(command, null, () -> startAsync(command).thenCompose(SProcess::onCompletion).thenApply(SProcess::toResult));
+	}
+	
+	
+	/**
+	 * Execute the given SProcess asynchronously, see executeCommandAsync(SProcess).
+	 * The result is built and the returned future is completed on the given executor, so dependent actions
+	 * that do not specify their own executor run there as well.
+	 * 
+	 * @param command
+	 * 		The SProcess object that must be executed on the system
+	 * @param executor
+	 * 		The executor to complete the returned future on
+	 * @return
+	 * 		A future completing with the result of the SProcess, or exceptionally with a NonMatchingOSException
+	 * 		or IOException if the SProcess could not be executed (SProcessRejectedException if it was rejected,
+	 * 		see setConcurrencyLimit()).
+	 */
+	public CompletableFuture<SProcessResult> executeCommandAsync(SProcess command, Executor executor){
+		return executeShared(command, executor, () -> startAsync(command).thenCompose(SProcess::onCompletion).thenApplyAsync(SProcess::toResult, executor));
+	}
+	
+	
+	/**
+	 * Execute the given SProcess, unless its result can be shared: it is served from the result cache if the
+	 * SProcess is cacheable and a valid result is cached, or it is taken from an identical SProcess that is
+	 * still running when single-flight is enabled. SProcesses that are not shareable (see SProcess.isShareable())
+	 * are always executed, and their result is neither cached nor shared.
+	 * 
+	 * @param executor
+	 * 		The executor to complete a shared result on, null to complete it on the thread producing it
+	 */
+	private CompletableFuture<SProcessResult> executeShared(SProcess command, Executor executor, Supplier<CompletableFuture<SProcessResult>> execution){
+		ResultCache cache = this.resultCache;
+		long ttl = cache == null ? 0 : command.getCacheTimeToLive();
+		boolean singleFlight = this.singleFlight;
+		if(ttl <= 0 && !singleFlight || !command.isShareable()){
+			return execution.get();
+		}
+		CommandKey key = new CommandKey(command);
+		if(ttl > 0){
+			SProcessResult cached = cache.get(key);
+			if(cached != null){
+				return executor == null ? CompletableFuture.completedFuture(cached) : CompletableFuture.supplyAsync(() -> cached, executor);
+			}
+		}
+		if(!singleFlight){
+			CompletableFuture<SProcessResult> result = execution.get();
+			result.thenAccept(completed -> {
+				// The stdIn may have been written or the output piped while it ran
+				if(command.isShareable()){
+					cache.put(key, ttl, completed);
+				}
+			});
+			return result;
+		}
+		InFlight flight = new InFlight(command);
+		CompletableFuture<SProcessResult> shared = flight.result;
+		InFlight running = this.inFlight.putIfAbsent(key, flight);
+		if(running != null){
+			if(!running.command.isShareable()){
+				return execution.get();
+			}
+			// Every caller gets a dependent future, so none of them can complete the shared one
+			CompletableFuture<SProcessResult> joined = running.result.thenCompose(result -> {
+				if(!running.command.isShareable()){
+					// The stdIn of the running SProcess was written or its output piped after this one joined
+					return execution.get();
+				}
+				this.coalesced.incrementAndGet();
+				return CompletableFuture.completedFuture(result);
+			});
+			return executor == null ? joined : joined.thenApplyAsync(Function.identity(), executor);
+		}
+		try{
+			execution.get().whenComplete((result, e) -> {
+				if(result != null && ttl > 0 && command.isShareable()){
+					cache.put(key, ttl, result);
+				}
+				// Removed before completing, later submissions find the cached result or execute again
+				this.inFlight.remove(key, flight);
+				if(e != null){
+					shared.completeExceptionally(e);
+				}else{
+					shared.complete(result);
+				}
+			});
+		}catch(RuntimeException e){
+			this.inFlight.remove(key, flight);
+			shared.completeExceptionally(e);
+		}
+		return shared.thenApply(Function.identity());
+	}
+	
+	
+	/**
+	 * Execute the given SProcesses asynchronously, with at most parallelism of them running at the same time.
+	 * Every time a SProcess completes the next one is started, see SProcessBatch.
+	 * The concurrency limit of this executor (setConcurrencyLimit()) still applies to the SProcesses of the batch.
+	 * 
+	 * @param commands
+	 * 		The SProcess objects that must be executed on the system, in submission order
+	 * @param parallelism
+	 * 		The maximum number of SProcesses of the batch running at the same time
+	 * @return
+	 * 		The batch, already started
+	 */
+	public SProcessBatch executeBatch(Collection<? extends SProcess> commands, int parallelism){
+		return executeBatch(commands, parallelism, false);
+	}
+	
+	
+	/**
+	 * Execute the given SProcesses asynchronously, with at most parallelism of them running at the same time.
+	 * Every time a SProcess completes the next one is started, see SProcessBatch.
+	 * The concurrency limit of this executor (setConcurrencyLimit()) still applies to the SProcesses of the batch.
+	 * 
+	 * @param commands
+	 * 		The SProcess objects that must be executed on the system, in submission order
+	 * @param parallelism
+	 * 		The maximum number of SProcesses of the batch running at the same time
+	 * @param failFast
+	 * 		If true, the first SProcess that exits with a non zero exit code or can not be executed cancels the
+	 * 		rest of the batch
+	 * @return
+	 * 		The batch, already started
+	 */
+	public SProcessBatch executeBatch(Collection<? extends SProcess> commands, int parallelism, boolean failFast){
+		SProcessBatch batch = new SProcessBatch(this, commands, parallelism, failFast);
+		batch.start();
+		return batch;
+	}
+
+	
+	/**
+	 * Start the given SProcess with all of its output read in the background, once the admission control
+	 * allows it. No thread is blocked while the SProcess waits in the queue.
+	 * 
+	 * @return
+	 * 		A future completing with the started SProcess
+	 */
+	private CompletableFuture<SProcess> startAsync(SProcess command){
+		try{
+			checkOSType(command);
+		}catch(NonMatchingOSException e){
+			CompletableFuture<SProcess> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		SProcessListener[] listeners = this.listeners;
+		command.setListeners(listeners);
+		command.markQueued();
+		CompletableFuture<Void> admission = this.admission.admit(command);
+		if(listeners.length > 0 && (admission.isCompletedExceptionally() || !admission.isDone())){
+			// Rejected now or possibly later, while waiting in the queue
+			admission.whenComplete((admitted, e) -> {
+				if(e != null){
+					command.markFailed(e);
+				}
+			});
+		}
+		return admission.thenApply(admitted -> {
+			if(command.isStartCancelled()){
+				this.admission.release();
+				CancellationException cancelled = new CancellationException("Execution of command \"" + command.getCommand() + "\" was cancelled");
+				command.markFailed(cancelled);
+				throw cancelled;
+			}
+			try{
+				startAdmitted(command);
+			}catch(IOException e){
+				throw new CompletionException(e);
+			}
+			if(command.isStartCancelled()){
+				// Cancelled while it was being started
+				command.terminate();
+			}
+			command.startDrainers();
+			return command;
+		});
+	}
+	
+	
+	/**
+	 * Cancel the execution of a SProcess submitted with executeCommandAsync() that has not been started yet:
+	 * it is withdrawn from the wait queue, or not started once it is admitted. The future of the execution
+	 * then completes with a CancellationException. A SProcess that is already started is not affected, except
+	 * that it is destroyed if it was being started at that moment.
+	 */
+	void cancelStart(SProcess command){
+		command.cancelStart();
+		this.admission.withdraw(command);
+	}
+	
+	
+	/**
+	 * Limit the number of processes started by this executor that run at the same time.
+	 * When the limit is reached, new commands wait in a FIFO queue until a running process exits:
+	 * 	- executeCommand() blocks the calling thread while waiting
+	 * 	- executeCommandAsync() returns immediately, the command is started once a slot is free
+	 * When the queue is full the rejection policy decides which command fails with a SProcessRejectedException:
+	 * 	- REJECT_NEW: the command that is being submitted
+	 * 	- REJECT_OLDEST: the command that has waited the longest, the new command takes its place
+	 * 
+	 * @param maxConcurrentProcesses
+	 * 		The maximum number of running processes, 0 or less for no limit (the default)
+	 * @param maxQueuedCommands
+	 * 		The maximum number of commands waiting for a slot, 0 to reject commands as soon as the limit is reached
+	 * @param policy
+	 * 		The rejection policy when the queue is full
+	 */
+	public void setConcurrencyLimit(int maxConcurrentProcesses, int maxQueuedCommands, REJECTION_POLICY policy){
+		if(policy == null){
+			throw new IllegalArgumentException("Rejection policy can not be null");
+		}
+		this.admission.configure(maxConcurrentProcesses, maxQueuedCommands, policy);
+	}
+	
+	
+	/**
+	 * Set the thread factory for the background I/O of the processes started from now on.
+	 * Each process uses up to two threads to read its stdOut and stdError and one per pipe, each of them
+	 * blocked for the lifetime of the process. Use IOThreads.virtualThreads() on Java 21 or later to keep
+	 * their cost low. By default daemon platform threads are used (IOThreads.platformThreads()).
+	 * 
+	 * @param factory
+	 * 		The thread factory for background I/O
+	 */
+	public void setIOThreadFactory(ThreadFactory factory){
+		if(factory == null){
+			throw new IllegalArgumentException("Thread factory can not be null");
+		}
+		this.ioExecutor = IOThreads.executorOf(factory);
+	}
+	
+	
+	/**
+	 * Set the executor running the background I/O of the processes started from now on, see setIOThreadFactory().
+	 * NOTE: Every task blocks until its stream is closed, an executor with a bounded number of threads
+	 * 		must be large enough for all streams of all running processes or output will stall.
+	 * 
+	 * @param executor
+	 * 		The executor for background I/O
+	 */
+	public void setIOExecutor(Executor executor){
+		if(executor == null){
+			throw new IllegalArgumentException("Executor can not be null");
+		}
+		this.ioExecutor = executor;
+	}
+	
+	
+	/**
+	 * Read the stdOut and stdError of the processes started from now on with the given shared pump,
+	 * so the number of reader threads no longer grows with the number of running processes.
+	 * Pipes between SProcessPiped processes still use the I/O executor.
+	 * 
+	 * @param pump
+	 * 		The pump to use, null to go back to a reader task per stream
+	 */
+	public void setIOPump(IOPump pump){
+		this.ioPump = pump;
+	}
+	
+	
+	/**
+	 * Get the shared pump reading the output of the processes started by this executor
+	 * 
+	 * @return
+	 * 		The pump, null if every stream is read by its own task
+	 */
+	public IOPump getIOPump(){
+		return this.ioPump;
+	}
+	
+	
+	/**
+	 * Run the commands executed from now on in the long-lived shells of the given pool, instead of starting
+	 * a new shell process for every command. Only for UNIX executors.
+	 * Commands on the pool get an empty stdIn, writeToProcessStdIn() fails for them. Commands that redirect
+	 * their streams or are SProcessPiped still start their own shell, see ShellPool for the details.
+	 * 
+	 * @param pool
+	 * 		The pool to use, null to start a shell per command again
+	 * @throws IllegalStateException
+	 * 		This is not a UNIX executor
+	 */
+	public void setShellPool(ShellPool pool){
+		if(pool != null && this.OSType != OS.UNIX){
+			throw new IllegalStateException("Shell pools are only supported on UNIX, not on " + this.OSType);
+		}
+		this.shellPool = pool;
+	}
+	
+	
+	/**
+	 * Register a listener for the lifecycle events of the SProcesses executed from now on: queued, spawned,
+	 * first output, exit and completion. See SProcessListener and the SProcessMetrics implementation.
+	 * 
+	 * @param listener
+	 * 		The listener to add
+	 */
+	public void addListener(SProcessListener listener){
+		if(listener == null){
+			throw new IllegalArgumentException("Listener can not be null");
+		}
+		synchronized(this){
+			SProcessListener[] current = this.listeners;
+			SProcessListener[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = listener;
+			this.listeners = updated;
+		}
+	}
+	
+	
+	/**
+	 * Remove a lifecycle listener. SProcesses that were already submitted keep reporting to it.
+	 * 
+	 * @param listener
+	 * 		The listener to remove
+	 * @return
+	 * 		true if the listener was registered
+	 */
+	public boolean removeListener(SProcessListener listener){
+		synchronized(this){
+			List<SProcessListener> updated = new ArrayList<>(Arrays.asList(this.listeners));
+			boolean removed = updated.remove(listener);
+			this.listeners = updated.toArray(SProcess.NO_LISTENERS);
+			return removed;
+		}
+	}
+	
+	
+	/**
+	 * Execute simple UNIX commands directly instead of through /bin/sh, which saves starting a shell process.
+	 * A command is simple when it is a list of plain words separated by spaces and does not start with a
+	 * shell builtin or keyword, for example "stat -c %s /var/log/syslog". Commands with quotes, variables,
+	 * globs, redirects, pipes or other shell syntax still run through the shell, as do commands whose program
+	 * can not be started directly.
+	 * NOTE: The arguments of direct commands are split on whitespace only, without any shell expansion.
+	 * 
+	 * @param enabled
+	 * 		true to execute simple commands directly, false (the default) to always use the shell
+	 */
+	public void setDirectExecEnabled(boolean enabled){
+		this.directExec = enabled;
+	}
+	
+	
+	/**
+	 * Check if simple UNIX commands are executed without a shell
+	 * 
+	 * @return
+	 * 		true if direct execution is enabled
+	 */
+	public boolean isDirectExecEnabled(){
+		return this.directExec;
+	}
+	
+	
+	/**
+	 * Set the timeout of the SProcesses executed by this executor that do not set their own (see SProcess.setTimeout()).
+	 * All timeouts are tracked by a single shared timer thread, whatever the number of running processes.
+	 * 
+	 * @param timeout
+	 * 		The maximum run time of a process, 0 to let processes run forever (the default)
+	 * @param unit
+	 * 		The unit of the timeout argument
+	 */
+	public void setDefaultTimeout(long timeout, TimeUnit unit){
+		if(timeout < 0){
+			throw new IllegalArgumentException("Timeout can not be negative: " + timeout);
+		}
+		this.defaultTimeoutNanos = unit.toNanos(timeout);
+	}
+	
+	
+	/**
+	 * Get the timeout of the SProcesses that do not set their own
+	 * 
+	 * @param unit
+	 * 		The unit to return the timeout in
+	 * @return
+	 * 		The default timeout, 0 if processes may run forever
+	 */
+	public long getDefaultTimeout(TimeUnit unit){
+		return unit.convert(this.defaultTimeoutNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Set the time a destroyed process and its descendants get to terminate (SIGTERM) before they are
+	 * killed (SIGKILL). Applies to timeouts, SProcess.destroy() and cancelled batches. The default is 5 seconds.
+	 * 
+	 * @param gracePeriod
+	 * 		The grace period, 0 to kill immediately after asking to terminate
+	 * @param unit
+	 * 		The unit of the gracePeriod argument
+	 */
+	public void setKillGracePeriod(long gracePeriod, TimeUnit unit){
+		if(gracePeriod < 0){
+			throw new IllegalArgumentException("Grace period can not be negative: " + gracePeriod);
+		}
+		this.killGraceNanos = unit.toNanos(gracePeriod);
+	}
+	
+	
+	/**
+	 * Sample the resource usage (CPU time, memory, I/O, context switches) of the processes started from now on,
+	 * see SProcess.getResourceUsage() and SProcessResult.getResourceUsage(). All processes are sampled by a
+	 * single shared thread reading /proc, so sampling is only available on Linux. Disabled by default.
+	 * 
+	 * @param interval
+	 * 		The time between samples of a process, 0 to stop sampling
+	 * @param unit
+	 * 		The unit of the interval argument
+	 * @param includeDescendants
+	 * 		true to add up the usage of the descendants of the processes, for commands that spawn workers
+	 */
+	public void setResourceSampling(long interval, TimeUnit unit, boolean includeDescendants){
+		if(interval < 0){
+			throw new IllegalArgumentException("Sampling interval can not be negative: " + interval);
+		}
+		this.resourceSamplingDescendants = includeDescendants;
+		this.resourceSamplingNanos = unit.toNanos(interval);
+	}
+	
+	
+	/**
+	 * Get the time between resource usage samples of the started processes
+	 * 
+	 * @param unit
+	 * 		The unit to return the interval in
+	 * @return
+	 * 		The sampling interval, 0 if processes are not sampled
+	 */
+	public long getResourceSamplingInterval(TimeUnit unit){
+		return unit.convert(this.resourceSamplingNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Cache the results of SProcesses that allow it (see SProcess.getCacheTimeToLive()) in the given cache.
+	 * A cached result is returned by executeCommandAsync() without executing the SProcess, the SProcess object
+	 * itself then stays in the NOT_YET_EXCECUTED state. executeCommand() always executes the SProcess.
+	 * NOTE: SProcesses that write their output to a file or share a stream of the JVM (see StreamRedirect) are
+	 * 		always executed. The result of a SProcess whose stdIn was written or whose output was piped is not cached.
+	 * 
+	 * @param cache
+	 * 		The result cache, null (the default) to always execute
+	 */
+	public void setResultCache(ResultCache cache){
+		this.resultCache = cache;
+	}
+	
+	
+	/**
+	 * Coalesce identical SProcesses executed with executeCommandAsync(): while a SProcess is running, an identical
+	 * one (same command string, OS type, working directory, environment, redirects and charset) is not executed but gets
+	 * the result of the running one. The SProcess objects that were not executed stay in the NOT_YET_EXCECUTED state.
+	 * NOTE: Only enable this when running a command twice at the same time is the same as running it once,
+	 * 		which is not the case for commands with side effects. SProcesses that write their output to a file or
+	 * 		share a stream of the JVM (see StreamRedirect) are never coalesced, and once the stdIn of a running
+	 * 		SProcess is written or its output is piped, the identical ones execute themselves after it.
+	 * 
+	 * @param enabled
+	 * 		true to coalesce identical SProcesses, false (the default) to execute every SProcess
+	 */
+	public void setSingleFlightEnabled(boolean enabled){
+		this.singleFlight = enabled;
+	}
+	
+	
+	/**
+	 * Check if identical SProcesses running at the same time are coalesced
+	 * 
+	 * @return
+	 * 		true if single-flight is enabled
+	 */
+	public boolean isSingleFlightEnabled(){
+		return this.singleFlight;
+	}
+	
+	
+	/**
+	 * Get the number of SProcesses that got the result of an identical running SProcess instead of being executed
+	 * 
+	 * @return
+	 * 		The number of coalesced SProcesses
+	 */
+	public long getCoalescedCount(){
+		return this.coalesced.get();
+	}
+	
+	
+	/**
+	 * Get the cache for the results of SProcesses that allow it
+	 * 
+	 * @return
+	 * 		The result cache, null if results are not cached
+	 */
+	public ResultCache getResultCache(){
+		return this.resultCache;
+	}
+	
+	
+	/**
+	 * Get the pool of warm shells running the commands of this executor
+	 * 
+	 * @return
+	 * 		The pool, null if every command starts its own shell
+	 */
+	public ShellPool getShellPool(){
+		return this.shellPool;
+	}
+	
+	
+	/**
+	 * Get a snapshot of the admission control statistics: running processes, queue depth and wait times.
+	 * 
+	 * @return
+	 * 		The current admission statistics of this executor
+	 */
+	public AdmissionStatistics getAdmissionStatistics(){
+		return this.admission.getStatistics();
+	}
+	
+	
 	/**
 	 * This method will detect the current OS type and returns a appropriate executor for that OS type.
 	 * At any point, there is only one executor for each OS type.
@@ -92,11 +798,20 @@ public class SProcessExecutor {
 	 * 		The singleton CommandExecutor object for the detected OS type.
 	 */
 	public static SProcessExecutor getCommandExecutor(){
-		OS OSType = detectOSType();
-		if(SProcessExecutor.singleton.get(OSType) == null){
-			SProcessExecutor.singleton.put(OSType, new SProcessExecutor(OSType));
+		// Plain lookup first, computeIfAbsent locks even when the executor exists
+		SProcessExecutor executor = SProcessExecutor.singleton.get(detectedOSType);
+		if(executor == null){
+			executor = SProcessExecutor.singleton.computeIfAbsent(detectedOSType, SProcessExecutor::new);
 		}
-		return SProcessExecutor.singleton.get(OSType);
+		return executor;
+	}
+	
+	
+	/**
+	 * Get the OS type of the running system, the one getCommandExecutor() returns the executor for
+	 */
+	static OS getDetectedOSType(){
+		return detectedOSType;
 	}
 	
 	
@@ -135,6 +850,20 @@ public class SProcessExecutor {
 		return this.OSType;
 	}
 	
+	/**
+	 * A SProcess running for single-flight, with the future its result is shared through
+	 */
+	private static final class InFlight{
+		
+		final SProcess command;
+		final CompletableFuture<SProcessResult> result = new CompletableFuture<>();
+		
+		InFlight(SProcess command){
+			this.command = command;
+		}
+	}
+	
+	
 	/**
 	 * Enum representing the possible OS types
 	 * Currently supports:
@@ -152,4 +881,13 @@ public class SProcessExecutor {
 	}
 	
 	
+	/**
+	 * Enum representing which command is rejected when the wait queue of the executor is full.
+	 * See setConcurrencyLimit().
+	 */
+	public enum REJECTION_POLICY{
+		REJECT_NEW, REJECT_OLDEST;
+	}
+	
+	
 }
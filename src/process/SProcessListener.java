@@ -0,0 +1,106 @@
+package process;
+
+/**
+ * Receives the lifecycle events of the SProcesses executed by a SProcessExecutor, for metrics and tracing.
+ * Register it with SProcessExecutor.addListener(). SProcessMetrics is a ready to use implementation.
+ *
+ * All times are in nanoseconds. Every SProcess gets onQueued, then onSpawned or onFailed. A spawned SProcess
+ * gets onFirstOutput per stream that has output, onExit, and finally onCompleted.
+ * Events are called on the threads doing the work (the executing thread, background readers), so
+ * implementations must be thread safe and should return quickly. Exceptions thrown by a listener are logged
+ * and otherwise ignored.
+ *
+ * When no listener is registered none of these methods are called and no event objects are created.
+ *
+ * @author polle
+ *
+ */
+public interface SProcessListener {
+
+	/**
+	 * The SProcess was submitted to the executor and waits for admission (see SProcessExecutor.setConcurrencyLimit()).
+	 *
+	 * @param command
+	 * 		The submitted SProcess
+	 */
+	default void onQueued(SProcess command){
+	}
+
+
+	/**
+	 * The process was started.
+	 *
+	 * @param command
+	 * 		The started SProcess
+	 * @param pid
+	 * 		The OS process id, -1 if it is not known
+	 * @param queueNanos
+	 * 		Time spent waiting for admission
+	 * @param spawnNanos
+	 * 		Time spent starting the process
+	 */
+	default void onSpawned(SProcess command, long pid, long queueNanos, long spawnNanos){
+	}
+
+
+	/**
+	 * The SProcess could not be started, it was rejected by the admission control or the process
+	 * could not be created.
+	 *
+	 * @param command
+	 * 		The SProcess that failed
+	 * @param cause
+	 * 		The reason, a SProcessRejectedException if it was rejected
+	 */
+	default void onFailed(SProcess command, Throwable cause){
+	}
+
+
+	/**
+	 * The first output of the process arrived on a stream that is read in the background.
+	 *
+	 * @param command
+	 * 		The SProcess
+	 * @param error
+	 * 		true for stdError, false for stdOut
+	 * @param sinceSpawnNanos
+	 * 		Time since the process was started
+	 */
+	default void onFirstOutput(SProcess command, boolean error, long sinceSpawnNanos){
+	}
+
+
+	/**
+	 * The process exited, its output may still be in transit.
+	 *
+	 * @param command
+	 * 		The SProcess
+	 * @param exitCode
+	 * 		The exit code of the process
+	 * @param runNanos
+	 * 		Time from the start of the process until its exit was detected
+	 */
+	default void onExit(SProcess command, int exitCode, long runNanos){
+	}
+
+
+	/**
+	 * The process exited and all of its output that is read in the background has been received.
+	 *
+	 * @param command
+	 * 		The SProcess
+	 * @param exitCode
+	 * 		The exit code of the process
+	 * @param totalNanos
+	 * 		Time from the start of the process until completion
+	 * @param normalBytes
+	 * 		Bytes read from the stdOut of the process
+	 * @param errorBytes
+	 * 		Bytes read from the stdError of the process
+	 * @param inputBytes
+	 * 		Bytes written to the stdIn of the process by writeToProcessStdIn()
+	 */
+	default void onCompleted(SProcess command, int exitCode, long totalNanos, long normalBytes, long errorBytes, long inputBytes){
+	}
+
+}
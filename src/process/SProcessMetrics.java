@@ -0,0 +1,210 @@
+package process;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A SProcessListener collecting latency histograms and counters for all SProcesses of an executor:
+ *
+ * 		- queue time: waiting for admission by the concurrency limit
+ * 		- spawn time: starting the process
+ * 		- first output time: from the start of the process to its first stdOut byte
+ * 		- run time: from the start of the process to its exit
+ * 		- completion time: from the start of the process until all of its output has been read
+ *
+ * Register it with SProcessExecutor.addListener(new SProcessMetrics()). Recording is lock-free and does not
+ * allocate.
+ *
+ * @author polle
+ *
+ */
+public final class SProcessMetrics implements SProcessListener {
+
+	private final LatencyHistogram queueTime = new LatencyHistogram();
+	private final LatencyHistogram spawnTime = new LatencyHistogram();
+	private final LatencyHistogram firstOutputTime = new LatencyHistogram();
+	private final LatencyHistogram runTime = new LatencyHistogram();
+	private final LatencyHistogram completionTime = new LatencyHistogram();
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong exitedWithError = new AtomicLong();
+	private final AtomicLong normalBytes = new AtomicLong();
+	private final AtomicLong errorBytes = new AtomicLong();
+	private final AtomicLong inputBytes = new AtomicLong();
+
+
+	@Override
+	public void onQueued(SProcess command) {
+		this.submitted.incrementAndGet();
+	}
+
+
+	@Override
+	public void onSpawned(SProcess command, long pid, long queueNanos, long spawnNanos) {
+		this.queueTime.record(queueNanos);
+		this.spawnTime.record(spawnNanos);
+	}
+
+
+	@Override
+	public void onFailed(SProcess command, Throwable cause) {
+		this.failed.incrementAndGet();
+	}
+
+
+	@Override
+	public void onFirstOutput(SProcess command, boolean error, long sinceSpawnNanos) {
+		if(!error){
+			this.firstOutputTime.record(sinceSpawnNanos);
+		}
+	}
+
+
+	@Override
+	public void onExit(SProcess command, int exitCode, long runNanos) {
+		this.runTime.record(runNanos);
+		if(exitCode != 0){
+			this.exitedWithError.incrementAndGet();
+		}
+	}
+
+
+	@Override
+	public void onCompleted(SProcess command, int exitCode, long totalNanos, long normalBytes, long errorBytes, long inputBytes) {
+		this.completionTime.record(totalNanos);
+		this.normalBytes.addAndGet(normalBytes);
+		this.errorBytes.addAndGet(errorBytes);
+		this.inputBytes.addAndGet(inputBytes);
+	}
+
+
+	/**
+	 * @return
+	 * 		The histogram of the time spent waiting for admission
+	 */
+	public LatencyHistogram getQueueTime(){
+		return this.queueTime;
+	}
+
+
+	/**
+	 * @return
+	 * 		The histogram of the time spent starting processes
+	 */
+	public LatencyHistogram getSpawnTime(){
+		return this.spawnTime;
+	}
+
+
+	/**
+	 * @return
+	 * 		The histogram of the time from the start of a process to its first stdOut byte
+	 */
+	public LatencyHistogram getFirstOutputTime(){
+		return this.firstOutputTime;
+	}
+
+
+	/**
+	 * @return
+	 * 		The histogram of the time from the start of a process to its exit
+	 */
+	public LatencyHistogram getRunTime(){
+		return this.runTime;
+	}
+
+
+	/**
+	 * @return
+	 * 		The histogram of the time from the start of a process until all of its output was read
+	 */
+	public LatencyHistogram getCompletionTime(){
+		return this.completionTime;
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of SProcesses submitted to the executor
+	 */
+	public long getSubmitted(){
+		return this.submitted.get();
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of SProcesses that were rejected or could not be started
+	 */
+	public long getFailed(){
+		return this.failed.get();
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of processes that exited with a non zero exit code
+	 */
+	public long getExitedWithError(){
+		return this.exitedWithError.get();
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of bytes read from the stdOut of completed processes
+	 */
+	public long getNormalBytes(){
+		return this.normalBytes.get();
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of bytes read from the stdError of completed processes
+	 */
+	public long getErrorBytes(){
+		return this.errorBytes.get();
+	}
+
+
+	/**
+	 * @return
+	 * 		The number of bytes written to the stdIn of completed processes
+	 */
+	public long getInputBytes(){
+		return this.inputBytes.get();
+	}
+
+
+	/**
+	 * Forget all recorded metrics
+	 */
+	public void reset(){
+		this.queueTime.reset();
+		this.spawnTime.reset();
+		this.firstOutputTime.reset();
+		this.runTime.reset();
+		this.completionTime.reset();
+		this.submitted.set(0);
+		this.failed.set(0);
+		this.exitedWithError.set(0);
+		this.normalBytes.set(0);
+		this.errorBytes.set(0);
+		this.inputBytes.set(0);
+	}
+
+
+	@Override
+	public String toString(){
+		return "SProcessMetrics[submitted=" + getSubmitted() + ", failed=" + getFailed()
+				+ ", exitedWithError=" + getExitedWithError()
+				+ ", bytes out/err/in=" + getNormalBytes() + "/" + getErrorBytes() + "/" + getInputBytes() + "]"
+				+ "\n\tqueue:       " + this.queueTime
+				+ "\n\tspawn:       " + this.spawnTime
+				+ "\n\tfirstOutput: " + this.firstOutputTime
+				+ "\n\trun:         " + this.runTime
+				+ "\n\tcompletion:  " + this.completionTime;
+	}
+
+}
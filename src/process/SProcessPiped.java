@@ -1,14 +1,18 @@
 package process;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import process.exceptions.SProcessNotYetStartedException;
 
 public abstract class SProcessPiped extends SProcess{
 
-	private SProcessPiped inputPipe = null;
-	private SProcessPiped outputPipe = null;
-	private SProcessPiped errorPipe = null;
+	private volatile SProcessPiped inputPipe = null;
+	private volatile SProcessPiped outputPipe = null;
+	private volatile SProcessPiped errorPipe = null;
+	private volatile Tee outputTee = null;
+	private volatile Tee errorTee = null;
 	
 	
 	/**
@@ -16,13 +20,22 @@ public abstract class SProcessPiped extends SProcess{
 	 * Set this process as the input pipe for the given process
 	 * 
 	 * @param process to pipe output data to
+	 * @return
+	 * 		The running pipe, can be used to monitor the transfer
+	 * @throws SProcessNotYetStartedException
+	 * 		One of both processes has not yet been executed by a SProcessExecutor
 	 */
-	public void PipeOutputTo(SProcessPiped process){
+	public PipeThread PipeOutputTo(SProcessPiped process) throws SProcessNotYetStartedException{
+		checkStarted(process);
+		if(!this.claimNormalStream()){
+			throw new IllegalStateException("Process stdOut is already being read, it can no longer be piped");
+		}
 		this.outputPipe = process;
-		process.inputPipe = this;
+		process.connectInputPipe(this);
 		
-		PipeThread pipe = new PipeThread(this.stdNormalOut, process.stdInput, this);
-		(new Thread(pipe)).start();
+		PipeThread pipe = new PipeThread(this.getProcess().getInputStream(), process.getProcess().getOutputStream(), this);
+		this.getIOExecutor().execute(pipe);
+		return pipe;
 	}
 	
 	
@@ -31,13 +44,94 @@ public abstract class SProcessPiped extends SProcess{
 	 * Set this process as the input pipe for the given process
 	 * 
 	 * @param process to pipe error data to
+	 * @return
+	 * 		The running pipe, can be used to monitor the transfer
+	 * @throws SProcessNotYetStartedException
+	 * 		One of both processes has not yet been executed by a SProcessExecutor
 	 */
-	public void PipeErrorTo(SProcessPiped process){
+	public PipeThread PipeErrorTo(SProcessPiped process) throws SProcessNotYetStartedException{
+		checkStarted(process);
+		if(!this.claimErrorStream()){
+			throw new IllegalStateException("Process stdError is already being read, it can no longer be piped");
+		}
 		this.errorPipe = process;
-		process.inputPipe = this;
+		process.connectInputPipe(this);
 		
-		PipeThread pipe = new PipeThread(this.stdError, process.stdInput, this);
-		(new Thread(pipe)).start();
+		PipeThread pipe = new PipeThread(this.getProcess().getErrorStream(), process.getProcess().getOutputStream(), this);
+		this.getIOExecutor().execute(pipe);
+		return pipe;
+	}
+	
+	
+	/**
+	 * Copy the output of this process to several consumers at once, see Tee.
+	 * Add the receiving processes and listeners to the returned tee, then start it.
+	 * 
+	 * @param policy
+	 * 		What to do with the output for a consumer that can not keep up
+	 * @return
+	 * 		The tee, not yet started
+	 * @throws SProcessNotYetStartedException
+	 * 		This process has not yet been executed by a SProcessExecutor
+	 */
+	public Tee TeeOutput(Tee.POLICY policy) throws SProcessNotYetStartedException{
+		checkStarted(this);
+		if(!this.claimNormalStream()){
+			throw new IllegalStateException("Process stdOut is already being read, it can no longer be teed");
+		}
+		Tee tee = new Tee(this, this.getProcess().getInputStream(), policy);
+		this.outputTee = tee;
+		return tee;
+	}
+	
+	
+	/**
+	 * Copy the error output of this process to several consumers at once, see TeeOutput()
+	 * 
+	 * @param policy
+	 * 		What to do with the error output for a consumer that can not keep up
+	 * @return
+	 * 		The tee, not yet started
+	 * @throws SProcessNotYetStartedException
+	 * 		This process has not yet been executed by a SProcessExecutor
+	 */
+	public Tee TeeError(Tee.POLICY policy) throws SProcessNotYetStartedException{
+		checkStarted(this);
+		if(!this.claimErrorStream()){
+			throw new IllegalStateException("Process stdError is already being read, it can no longer be teed");
+		}
+		Tee tee = new Tee(this, this.getProcess().getErrorStream(), policy);
+		this.errorTee = tee;
+		return tee;
+	}
+	
+	
+	/**
+	 * Mark the stdIn of this process as fed by the given process, by a pipe or a tee
+	 */
+	void connectInputPipe(SProcessPiped sender){
+		this.inputPipe = sender;
+		this.markStdInConnected();
+	}
+	
+	
+	private void checkStarted(SProcessPiped process) throws SProcessNotYetStartedException{
+		if(this.getProcess() == null){
+			throw new SProcessNotYetStartedException(this);
+		}
+		if(process.getProcess() == null){
+			throw new SProcessNotYetStartedException(process);
+		}
+	}
+	
+	
+	/**
+	 * The streams of a piped process are only read once output is requested,
+	 * so they can still be connected to a pipe after the process is started.
+	 */
+	@Override
+	boolean drainOnStart(){
+		return false;
 	}
 	
 	
@@ -51,7 +145,7 @@ public abstract class SProcessPiped extends SProcess{
 
 	@Override
 	public String getNormalOutput() throws SProcessNotYetStartedException{
-		if(outputPipe == null){
+		if(outputPipe == null && outputTee == null){
 			return super.getNormalOutput();
 		}
 		return null;
@@ -60,7 +154,7 @@ public abstract class SProcessPiped extends SProcess{
 	
 	@Override
 	public String getErrorOutput() throws SProcessNotYetStartedException{
-		if(errorPipe == null){
+		if(errorPipe == null && errorTee == null){
 			return super.getErrorOutput();
 		}
 		return null;
@@ -71,6 +165,38 @@ public abstract class SProcessPiped extends SProcess{
 	public void writeToProcessStdIn(String input) throws SProcessNotYetStartedException, IOException{
 		if(inputPipe == null){
 			super.writeToProcessStdIn(input);
+			return;
+		}
+		throw new IOException("Process sdtIn is already in use by other process. (Did you connect a pipe?)");
+	}
+	
+	
+	@Override
+	public void writeToProcessStdIn(byte[] input, int offset, int length) throws SProcessNotYetStartedException, IOException{
+		if(inputPipe == null){
+			super.writeToProcessStdIn(input, offset, length);
+			return;
+		}
+		throw new IOException("Process sdtIn is already in use by other process. (Did you connect a pipe?)");
+	}
+	
+	
+	@Override
+	public CompletableFuture<Long> feedStdIn(InputSource source) throws SProcessNotYetStartedException{
+		if(inputPipe == null){
+			return super.feedStdIn(source);
+		}
+		CompletableFuture<Long> fed = new CompletableFuture<>();
+		fed.completeExceptionally(new IOException("Process sdtIn is already in use by other process. (Did you connect a pipe?)"));
+		return fed;
+	}
+	
+	
+	@Override
+	public void closeProcessStdIn() throws SProcessNotYetStartedException, IOException{
+		if(inputPipe == null){
+			super.closeProcessStdIn();
+			return;
 		}
 		throw new IOException("Process sdtIn is already in use by other process. (Did you connect a pipe?)");
 	}
@@ -78,26 +204,73 @@ public abstract class SProcessPiped extends SProcess{
 	
 	@Override
 	public boolean waitForOutput() throws IOException{
-		if(outputPipe == null && errorPipe == null){
+		if(outputPipe == null && outputTee == null && errorPipe == null && errorTee == null){
 			return super.waitForOutput();
 		}
 		throw new IOException("Process stdOut or stdError is already in use by other process. (Did you connect a pipe?)");
 	}
 	
 	
+	@Override
+	public OUTPUT_EVENT awaitOutput(long timeout, TimeUnit unit) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(outputPipe == null && outputTee == null && errorPipe == null && errorTee == null){
+			return super.awaitOutput(timeout, unit);
+		}
+		throw new IOException("Process stdOut or stdError is already in use by other process. (Did you connect a pipe?)");
+	}
+	
+	
 	@Override
 	public void waitForOutputNormal() throws IOException{
-		if(outputPipe == null){
+		if(outputPipe == null && outputTee == null){
 			super.waitForOutputNormal();
+			return;
 		}
 		throw new IOException("Process stdOut is already in use by other process. (Did you connect a pipe?)");
 	}
 	
 	
+	@Override
+	public boolean awaitNormalOutput(long timeout, TimeUnit unit) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(outputPipe == null && outputTee == null){
+			return super.awaitNormalOutput(timeout, unit);
+		}
+		throw new IOException("Process stdOut is already in use by other process. (Did you connect a pipe?)");
+	}
+	
+	
+	@Override
+	public ExpectMatch expectNormal(long timeout, TimeUnit unit, ExpectPattern... patterns) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(outputPipe == null && outputTee == null){
+			return super.expectNormal(timeout, unit, patterns);
+		}
+		throw new IOException("Process stdOut is already in use by other process. (Did you connect a pipe?)");
+	}
+	
+	
+	@Override
+	public ExpectMatch expectError(long timeout, TimeUnit unit, ExpectPattern... patterns) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(errorPipe == null && errorTee == null){
+			return super.expectError(timeout, unit, patterns);
+		}
+		throw new IOException("Process stdError is already in use by other process. (Did you connect a pipe?)");
+	}
+	
+	
 	@Override
 	public void waitForOutputError() throws IOException{
-		if(errorPipe == null){
+		if(errorPipe == null && errorTee == null){
 			super.waitForOutputError();
+			return;
+		}
+		throw new IOException("Process stdError is already in use by other process. (Did you connect a pipe?)");
+	}
+	
+	
+	@Override
+	public boolean awaitErrorOutput(long timeout, TimeUnit unit) throws SProcessNotYetStartedException, InterruptedException, IOException{
+		if(errorPipe == null && errorTee == null){
+			return super.awaitErrorOutput(timeout, unit);
 		}
 		throw new IOException("Process stdError is already in use by other process. (Did you connect a pipe?)");
 	}
@@ -0,0 +1,111 @@
+package process;
+
+import process.SProcessExecutor.OS;
+
+/**
+ * A SProcess that runs a chain of SProcessPiped stages as one pipeline.
+ * The stages are wired together by the OS (stdOut of every stage to the stdIn of the next stage) so the
+ * data flowing between the stages never passes through the JVM, unlike SProcessPiped.PipeOutputTo().
+ *
+ * The pipeline itself behaves like a normal SProcess:
+ * 	- stdIn is the stdIn of the first stage
+ * 	- stdOut is the stdOut of the last stage
+ * 	- stdError collects the error output of all stages
+ * 	- the exit code is the exit code of the last stage
+ *
+ * NOTE: The stages are only used to build the pipeline, they are never executed themselves.
+ *
+ * @author polle
+ *
+ */
+public class SProcessPipeline extends SProcess{
+
+	private final SProcessPiped[] stages;
+	private final OS OSType;
+	private final String command;
+
+
+	/**
+	 * Create a pipeline from the given stages, in the order the data should flow through them.
+	 *
+	 * @param stages
+	 * 		The stages of the pipeline, at least one.
+	 * @throws IllegalArgumentException
+	 * 		No stages were given or the stages are designed for different OS types
+	 */
+	public SProcessPipeline(SProcessPiped... stages){
+		if(stages == null || stages.length == 0){
+			throw new IllegalArgumentException("A pipeline needs at least one stage");
+		}
+		this.stages = stages.clone();
+		this.OSType = commonOSType(this.stages);
+
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < this.stages.length; i++){
+			if(i > 0){
+				builder.append(" | ");
+			}
+			builder.append(stageCommand(this.stages[i]));
+		}
+		this.command = builder.toString();
+	}
+
+
+	/**
+	 * Determine the OS type of the pipeline. Stages with OS type "ANY" fit in any pipeline,
+	 * all other stages must agree on the same OS type.
+	 */
+	private static OS commonOSType(SProcessPiped[] stages){
+		OS common = OS.ANY;
+		for(SProcessPiped stage : stages){
+			OS type = stage.getOSType();
+			if(type == OS.ANY){
+				continue;
+			}
+			if(common != OS.ANY && common != type){
+				throw new IllegalArgumentException("Pipeline stages are designed for different OS types ("
+						+ common + " and " + type + ")");
+			}
+			common = type;
+		}
+		return common;
+	}
+
+
+	/**
+	 * Get the command string of a single stage. Unless the pipeline runs on Windows the stage is grouped so that
+	 * control operators inside a stage (for example "cd dir && ls") do not leak into the rest of the pipeline.
+	 * A pipeline of stages for any OS runs on the detected OS.
+	 */
+	private String stageCommand(SProcessPiped stage){
+		OS runningOS = this.OSType == OS.ANY ? SProcessExecutor.getDetectedOSType() : this.OSType;
+		if(runningOS != OS.WINDOWS){
+			return "{ " + stage.getCommand() + "\n}";
+		}
+		return stage.getCommand();
+	}
+
+
+	/**
+	 * Get the stages of this pipeline in the order the data flows through them.
+	 *
+	 * @return
+	 * 		A copy of the stages array
+	 */
+	public SProcessPiped[] getStages(){
+		return this.stages.clone();
+	}
+
+
+	@Override
+	public String getCommand() {
+		return this.command;
+	}
+
+
+	@Override
+	public OS getOSType() {
+		return this.OSType;
+	}
+
+}
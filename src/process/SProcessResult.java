@@ -0,0 +1,202 @@
+package process;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The immutable result of a finished SProcess: its exit code, the captured output and its timing.
+ * Results are produced by the asynchronous execution methods of the SProcessExecutor.
+ * 
+ * NOTE: The captured output is the output history of the SProcess, so it is limited by its history policy and to its last 512MB.
+ * 		It is kept as bytes and only decoded with the charset of the SProcess when a String is requested.
+ * 
+ * @author polle
+ *
+ */
+public final class SProcessResult {
+
+	private final String command;
+	private final int exitCode;
+	private final ByteBuffer normalOutput;
+	private final ByteBuffer errorOutput;
+	private final Charset charset;
+	private final long startTimeMillis;
+	private final long durationNanos;
+	private final boolean timedOut;
+	private final ResourceUsage resourceUsage;
+	
+	// Decoded on first request
+	private volatile String normalOutputString = null;
+	private volatile String errorOutputString = null;
+	
+	
+	SProcessResult(String command, int exitCode, ByteBuffer normalOutput, ByteBuffer errorOutput, Charset charset,
+			long startTimeMillis, long durationNanos, boolean timedOut, ResourceUsage resourceUsage){
+		this.command = command;
+		this.exitCode = exitCode;
+		this.normalOutput = normalOutput;
+		this.errorOutput = errorOutput;
+		this.charset = charset;
+		this.startTimeMillis = startTimeMillis;
+		this.durationNanos = durationNanos;
+		this.timedOut = timedOut;
+		this.resourceUsage = resourceUsage;
+	}
+	
+	
+	/**
+	 * Get the command string that was executed
+	 * 
+	 * @return
+	 * 		The command string
+	 */
+	public String getCommand(){
+		return this.command;
+	}
+	
+	
+	/**
+	 * Get the exit code of the process
+	 * 
+	 * @return
+	 * 		The exit code
+	 */
+	public int getExitCode(){
+		return this.exitCode;
+	}
+	
+	
+	/**
+	 * Get the status the process completed with
+	 * 
+	 * @return
+	 * 		TIMED_OUT if the process was destroyed by its timeout, COMPLETED_NORMAL for exit code 0,
+	 * 		COMPLETED_ERROR otherwise
+	 */
+	public SProcess.STATUS getStatus(){
+		if(this.timedOut){
+			return SProcess.STATUS.TIMED_OUT;
+		}
+		return this.exitCode == 0 ? SProcess.STATUS.COMPLETED_NORMAL : SProcess.STATUS.COMPLETED_ERROR;
+	}
+	
+	
+	/**
+	 * Check if the process was destroyed because it ran longer than its timeout, see SProcess.setTimeout()
+	 * 
+	 * @return
+	 * 		true if the timeout expired
+	 */
+	public boolean isTimedOut(){
+		return this.timedOut;
+	}
+	
+	
+	/**
+	 * Get everything the process wrote to its stdOut
+	 * 
+	 * @return
+	 * 		The captured stdOut
+	 */
+	public String getNormalOutput(){
+		String output = this.normalOutputString;
+		if(output == null){
+			output = this.charset.decode(this.normalOutput.duplicate()).toString();
+			this.normalOutputString = output;
+		}
+		return output;
+	}
+	
+	
+	/**
+	 * Get the raw bytes the process wrote to its stdOut, without decoding them
+	 * 
+	 * @return
+	 * 		A read-only buffer with the captured stdOut
+	 */
+	public ByteBuffer getNormalOutputBytes(){
+		return this.normalOutput.duplicate();
+	}
+	
+	
+	/**
+	 * Get everything the process wrote to its stdError
+	 * 
+	 * @return
+	 * 		The captured stdError
+	 */
+	public String getErrorOutput(){
+		String output = this.errorOutputString;
+		if(output == null){
+			output = this.charset.decode(this.errorOutput.duplicate()).toString();
+			this.errorOutputString = output;
+		}
+		return output;
+	}
+	
+	
+	/**
+	 * Get the raw bytes the process wrote to its stdError, without decoding them
+	 * 
+	 * @return
+	 * 		A read-only buffer with the captured stdError
+	 */
+	public ByteBuffer getErrorOutputBytes(){
+		return this.errorOutput.duplicate();
+	}
+	
+	
+	/**
+	 * Get the charset the output is decoded with, see SProcess.getCharset()
+	 * 
+	 * @return
+	 * 		The charset of the output
+	 */
+	public Charset getCharset(){
+		return this.charset;
+	}
+	
+	
+	/**
+	 * Get the time the process was started
+	 * 
+	 * @return
+	 * 		The start time in milliseconds since the epoch
+	 */
+	public long getStartTimeMillis(){
+		return this.startTimeMillis;
+	}
+	
+	
+	/**
+	 * Get the time between starting the process and receiving all of its output
+	 * 
+	 * @param unit
+	 * 		The unit to return the duration in
+	 * @return
+	 * 		The duration in the given unit
+	 */
+	public long getDuration(TimeUnit unit){
+		return unit.convert(this.durationNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Get the final resources used by the process, see SProcess.getResourceUsage()
+	 * 
+	 * @return
+	 * 		The resource usage, null if the process was not sampled
+	 */
+	public ResourceUsage getResourceUsage(){
+		return this.resourceUsage;
+	}
+	
+	
+	@Override
+	public String toString(){
+		return "SProcessResult[command=\"" + this.command + "\", exitCode=" + this.exitCode
+				+ ", duration=" + getDuration(TimeUnit.MILLISECONDS) + "ms" + (this.timedOut ? ", timedOut" : "") + "]";
+	}
+	
+}
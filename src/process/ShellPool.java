@@ -0,0 +1,653 @@
+package process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of long-lived /bin/sh processes that run commands sent over their stdIn, so a command does not pay
+ * for starting a new shell. Enable it with SProcessExecutor.setShellPool().
+ *
+ * Every command runs in a subshell of a pooled shell, so changes to the working directory, variables or
+ * options do not leak into the next command. The working directory and environment of the SProcess are set
+ * in that subshell. The command is passed to eval as a single quoted word, a syntax error in it can not
+ * break the framing. After the subshell exits the shell writes a marker with a random token to stdOut,
+ * followed by the exit code, and a second marker to stdError. Everything before the markers is the output
+ * of the command, it is streamed to the SProcess as it arrives.
+ *
+ * A shell is replaced after a configurable number of commands, when it is found dead before a command is
+ * handed to it, or when it dies while running one (the command then gets the exit code of the shell).
+ *
+ * Limitations:
+ * 		- Commands get an empty stdIn (/dev/null), the SProcess can not write to it.
+ * 		- Output written by background processes a command leaves behind may end up in a later command.
+ * 		- Destroying a command kills its shell, processes started by the command may keep running.
+ *
+ * @author polle
+ *
+ */
+public final class ShellPool {
+
+	private static final int DEFAULT_MAX_COMMANDS_PER_SHELL = 1000;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private final Logger logger = LoggerFactory.getLogger(ShellPool.class);
+
+	private final String shell;
+	private final int size;
+	private final int maxCommandsPerShell;
+	private final Charset charset = Charset.defaultCharset();
+
+	private final ArrayDeque<Worker> idle = new ArrayDeque<>();
+	private final ArrayDeque<Job> queue = new ArrayDeque<>();
+	private int shells = 0;
+	private boolean shutdown = false;
+
+	private final AtomicInteger shellIds = new AtomicInteger();
+	private final AtomicLong commandsRun = new AtomicLong();
+
+
+	/**
+	 * Create a pool and start the given number of shells, a shell is replaced after 1000 commands.
+	 *
+	 * @param size
+	 * 		The number of shells, at least 1
+	 * @throws IOException
+	 * 		A shell could not be started
+	 */
+	public ShellPool(int size) throws IOException{
+		this(size, DEFAULT_MAX_COMMANDS_PER_SHELL);
+	}
+
+
+	/**
+	 * Create a pool and start the given number of shells.
+	 *
+	 * @param size
+	 * 		The number of shells, at least 1
+	 * @param maxCommandsPerShell
+	 * 		The number of commands after which a shell is replaced by a fresh one
+	 * @throws IOException
+	 * 		A shell could not be started
+	 */
+	public ShellPool(int size, int maxCommandsPerShell) throws IOException{
+		if(size < 1 || maxCommandsPerShell < 1){
+			throw new IllegalArgumentException("Pool size and commands per shell must be positive: " + size + ", " + maxCommandsPerShell);
+		}
+		this.shell = "/bin/sh";
+		this.size = size;
+		this.maxCommandsPerShell = maxCommandsPerShell;
+		try{
+			for(int i = 0; i < size; i++){
+				this.idle.addLast(new Worker());
+				this.shells++;
+			}
+		}catch(IOException e){
+			shutdown();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Check if the given SProcess can run on this pool
+	 */
+	boolean accepts(SProcess command){
+		synchronized(this){
+			if(this.shutdown){
+				return false;
+			}
+		}
+		return command.drainOnStart()
+				&& command.getNormalOutputRedirect().isPipe()
+				&& command.getErrorOutputRedirect().isPipe()
+				&& (command.getInputRedirect().isPipe() || command.getInputRedirect().getMode() == StreamRedirect.MODE.DISCARD);
+	}
+
+
+	/**
+	 * Queue the given SProcess to run on the next free shell
+	 *
+	 * @return
+	 * 		The process of the command, running as soon as a shell is free
+	 * @throws IOException
+	 * 		The pool is shut down, or an environment variable name is not valid
+	 */
+	Process start(SProcess command) throws IOException{
+		Job job = new Job(script(command));
+		synchronized(this){
+			if(this.shutdown){
+				throw new IOException("Shell pool is shut down");
+			}
+			this.queue.addLast(job);
+		}
+		dispatch();
+		return job.process;
+	}
+
+
+	/**
+	 * Hand queued jobs to free shells, starting new shells while the pool is not full
+	 */
+	private void dispatch(){
+		while(true){
+			Worker worker;
+			Job job;
+			synchronized(this){
+				if(this.queue.isEmpty()){
+					return;
+				}
+				worker = this.idle.pollLast();
+				if(worker == null){
+					if(this.shells >= this.size){
+						return;
+					}
+					this.shells++;
+				}
+				job = this.queue.pollFirst();
+			}
+			if(worker == null){
+				try{
+					worker = new Worker();
+				}catch(IOException e){
+					synchronized(this){
+						this.shells--;
+					}
+					logger.error("Could not start a pooled shell: " + e.getMessage());
+					job.fail(127, "Could not start shell: " + e.getMessage() + "\n");
+					continue;
+				}
+			}
+			// Health check, a shell that died while idle is replaced
+			if(!worker.shell.isAlive() || !worker.run(job)){
+				worker.died();
+				synchronized(this){
+					this.queue.addFirst(job);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Called by a worker when its job is done, the worker is reused or retired
+	 */
+	private void jobFinished(Worker worker){
+		this.commandsRun.incrementAndGet();
+		boolean retire;
+		synchronized(this){
+			retire = worker.commands >= this.maxCommandsPerShell || this.shutdown;
+			if(retire){
+				this.shells--;
+			}else{
+				this.idle.addLast(worker);
+			}
+		}
+		if(retire){
+			worker.retire();
+		}
+		dispatch();
+	}
+
+
+	/**
+	 * Called by a worker when its shell died, the worker is gone and a new shell is started when needed
+	 */
+	private void shellDied(Worker worker){
+		synchronized(this){
+			this.idle.remove(worker);
+			this.shells--;
+		}
+		dispatch();
+	}
+
+
+	/**
+	 * Remove a job that has not been handed to a shell yet
+	 */
+	private synchronized boolean cancel(Job job){
+		return this.queue.remove(job);
+	}
+
+
+	/**
+	 * Build the shell input running the given command in an isolated subshell
+	 */
+	private String script(SProcess command) throws IOException{
+		StringBuilder script = new StringBuilder("( ");
+		Path directory = command.getWorkingDirectory();
+		if(directory != null){
+			script.append("cd -- ").append(quote(directory.toString())).append(" || exit 1; ");
+		}
+		Map<String, String> environment = command.getEnvironment();
+		if(environment != null){
+			for(Map.Entry<String, String> variable : environment.entrySet()){
+				if(!variable.getKey().matches("[A-Za-z_][A-Za-z0-9_]*")){
+					throw new IOException("Environment variable name \"" + variable.getKey() + "\" can not be used in a shell pool");
+				}
+				script.append("export ").append(variable.getKey()).append('=').append(quote(variable.getValue())).append("; ");
+			}
+		}
+		script.append("eval ").append(quote(command.getCommand())).append(" ) </dev/null; ");
+		return script.toString();
+	}
+
+
+	/**
+	 * Quote a String as a single shell word
+	 */
+	private static String quote(String value){
+		return "'" + value.replace("'", "'\\''") + "'";
+	}
+
+
+	/**
+	 * Get the number of shells of this pool
+	 *
+	 * @return
+	 * 		The maximum number of commands running at the same time
+	 */
+	public int getSize(){
+		return this.size;
+	}
+
+
+	/**
+	 * Get the number of commands waiting for a free shell
+	 *
+	 * @return
+	 * 		The number of queued commands
+	 */
+	public synchronized int getQueuedCount(){
+		return this.queue.size();
+	}
+
+
+	/**
+	 * Get the number of shells that are running and not busy
+	 *
+	 * @return
+	 * 		The number of idle shells
+	 */
+	public synchronized int getIdleCount(){
+		return this.idle.size();
+	}
+
+
+	/**
+	 * Get the number of shells started by this pool, including replacements
+	 *
+	 * @return
+	 * 		The number of shells ever started
+	 */
+	public int getShellsStarted(){
+		return this.shellIds.get();
+	}
+
+
+	/**
+	 * Get the number of commands completed by this pool
+	 *
+	 * @return
+	 * 		The number of completed commands
+	 */
+	public long getCommandsRun(){
+		return this.commandsRun.get();
+	}
+
+
+	/**
+	 * Stop accepting commands. Queued and running commands still complete, the shells exit once they are idle.
+	 */
+	public void shutdown(){
+		Worker[] workers;
+		synchronized(this){
+			this.shutdown = true;
+			workers = this.idle.toArray(new Worker[0]);
+			this.idle.clear();
+			this.shells -= workers.length;
+		}
+		for(Worker worker : workers){
+			worker.retire();
+		}
+	}
+
+
+	/**
+	 * A command waiting for or running on a shell
+	 */
+	private final class Job{
+
+		final byte[] script;
+		final BytePipe normal = new BytePipe();
+		final BytePipe error = new BytePipe();
+		final PooledProcess process = new PooledProcess(this);
+		final CountDownLatch exited = new CountDownLatch(1);
+		volatile int exitCode;
+		volatile Worker worker = null;
+
+		Job(String script){
+			this.script = script.getBytes(ShellPool.this.charset);
+		}
+
+		void complete(int exitCode){
+			this.normal.finish();
+			this.error.finish();
+			this.exitCode = exitCode;
+			this.exited.countDown();
+		}
+
+		void fail(int exitCode, String message){
+			byte[] bytes = message.getBytes(ShellPool.this.charset);
+			this.error.write(bytes, 0, bytes.length);
+			complete(exitCode);
+		}
+
+		void destroy(){
+			if(ShellPool.this.cancel(this)){
+				complete(143);
+				return;
+			}
+			Worker running = this.worker;
+			if(running != null && this.exited.getCount() > 0){
+				running.shell.destroyForcibly();
+			}
+		}
+	}
+
+
+	/**
+	 * The process of a command running on the pool, as seen by the SProcess
+	 */
+	private static final class PooledProcess extends Process{
+
+		private final Job job;
+
+		PooledProcess(Job job){
+			this.job = job;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new OutputStream(){
+				@Override
+				public void write(int b) throws IOException {
+					throw new IOException("The stdIn of a command running on a shell pool is not available");
+				}
+			};
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return this.job.normal;
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return this.job.error;
+		}
+
+		@Override
+		public int waitFor() throws InterruptedException {
+			this.job.exited.await();
+			return this.job.exitCode;
+		}
+
+		@Override
+		public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+			return this.job.exited.await(timeout, unit);
+		}
+
+		@Override
+		public int exitValue() {
+			if(this.job.exited.getCount() > 0){
+				throw new IllegalThreadStateException("process hasn't exited");
+			}
+			return this.job.exitCode;
+		}
+
+		@Override
+		public boolean isAlive() {
+			return this.job.exited.getCount() > 0;
+		}
+
+		@Override
+		public void destroy() {
+			this.job.destroy();
+		}
+	}
+
+
+	/**
+	 * A pooled shell with a reader thread for its stdOut and one for its stdError
+	 */
+	private final class Worker{
+
+		final Process shell;
+		final OutputStream stdIn;
+		final String tokenPrefix;
+		int commands = 0;
+		long sequence = 0;
+
+		// Current job and its progress, guarded by this worker
+		Job job = null;
+		byte[] normalMarker;
+		byte[] errorMarker;
+		boolean normalDone = false;
+		boolean errorDone = false;
+		int exitCode = 0;
+		boolean retired = false;
+		boolean dead = false;
+
+		Worker() throws IOException{
+			int id = ShellPool.this.shellIds.incrementAndGet();
+			this.shell = new ProcessBuilder(ShellPool.this.shell).start();
+			this.stdIn = this.shell.getOutputStream();
+			byte[] token = new byte[12];
+			random.nextBytes(token);
+			StringBuilder prefix = new StringBuilder("SPROCESS_");
+			for(byte b : token){
+				prefix.append(String.format("%02x", b));
+			}
+			this.tokenPrefix = prefix.append('_').toString();
+			startReader(this.shell.getInputStream(), true, "SProcess-shell-" + id + "-out");
+			startReader(this.shell.getErrorStream(), false, "SProcess-shell-" + id + "-err");
+		}
+
+		private void startReader(InputStream in, boolean normal, String name){
+			Thread thread = new Thread(() -> read(in, normal), name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Send the job to the shell, with the markers printed after it
+		 *
+		 * @return
+		 * 		false if the shell is already dead and the job was not taken
+		 */
+		boolean run(Job job){
+			String token = this.tokenPrefix + (this.sequence++);
+			byte[] normalMarker = ("\n" + token + ":").getBytes(ShellPool.this.charset);
+			byte[] errorMarker = ("\n" + token + "\n").getBytes(ShellPool.this.charset);
+			synchronized(this){
+				if(this.dead || this.retired){
+					return false;
+				}
+				this.job = job;
+				this.normalDone = false;
+				this.errorDone = false;
+				this.normalMarker = normalMarker;
+				this.errorMarker = errorMarker;
+			}
+			job.worker = this;
+			String markers = "printf '\\n%s%d\\n' '" + token + ":' \"$?\"; printf '\\n%s\\n' '" + token + "' >&2\n";
+			try{
+				this.stdIn.write(job.script);
+				this.stdIn.write(markers.getBytes(ShellPool.this.charset));
+				this.stdIn.flush();
+			}catch(IOException e){
+				died();
+			}
+			return true;
+		}
+
+		/**
+		 * Reader loop, passes the output of the current job on until its marker is found
+		 */
+		private void read(InputStream in, boolean normal){
+			byte[] chunk = new byte[StreamDrainer.CHUNK_SIZE];
+			byte[] out = null;
+			Job current = null;
+			byte[] marker = null;
+			int matched = 0;
+			boolean inExitCode = false;
+			int exitCode = 0;
+			try{
+				int read;
+				while((read = in.read(chunk)) >= 0){
+					if(current == null){
+						synchronized(this){
+							if(this.job != null && !(normal ? this.normalDone : this.errorDone)){
+								current = this.job;
+								marker = normal ? this.normalMarker : this.errorMarker;
+								matched = 0;
+								out = new byte[chunk.length + marker.length];
+							}
+						}
+						if(current == null){
+							// Output of a background process of an earlier command
+							continue;
+						}
+					}
+					int length = 0;
+					for(int i = 0; i < read && current != null; i++){
+						byte b = chunk[i];
+						if(inExitCode){
+							if(b == '\n'){
+								inExitCode = false;
+								current.normal.write(out, 0, length);
+								length = 0;
+								current = null;
+								streamDone(true, exitCode);
+							}else if(b >= '0' && b <= '9'){
+								exitCode = exitCode * 10 + (b - '0');
+							}
+						}else if(b == marker[matched]){
+							matched++;
+							if(matched == marker.length){
+								matched = 0;
+								if(normal){
+									inExitCode = true;
+									exitCode = 0;
+								}else{
+									current.error.write(out, 0, length);
+									length = 0;
+									current = null;
+									streamDone(false, 0);
+								}
+							}
+						}else{
+							// The marker only holds a newline at its start
+							System.arraycopy(marker, 0, out, length, matched);
+							length += matched;
+							if(b == '\n'){
+								matched = 1;
+							}else{
+								out[length++] = b;
+								matched = 0;
+							}
+						}
+					}
+					if(current != null && length > 0){
+						(normal ? current.normal : current.error).write(out, 0, length);
+					}
+				}
+			}catch(IOException e){
+				// Shell is gone
+			}
+			died();
+		}
+
+		private void streamDone(boolean normal, int exitCode){
+			Job done = null;
+			synchronized(this){
+				if(normal){
+					this.normalDone = true;
+					this.exitCode = exitCode;
+				}else{
+					this.errorDone = true;
+				}
+				if(this.normalDone && this.errorDone && this.job != null){
+					done = this.job;
+					this.job = null;
+					this.commands++;
+				}
+			}
+			if(done != null){
+				done.worker = null;
+				done.complete(this.exitCode);
+				jobFinished(this);
+			}
+		}
+
+		/**
+		 * Called when the shell is found dead, fails the current job and replaces this worker
+		 */
+		void died(){
+			Job failed;
+			synchronized(this){
+				if(this.dead || this.retired){
+					return;
+				}
+				this.dead = true;
+				failed = this.job;
+				this.job = null;
+			}
+			this.shell.destroyForcibly();
+			if(failed != null){
+				int exitCode;
+				try{
+					exitCode = this.shell.waitFor();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					exitCode = 137;
+				}
+				failed.complete(exitCode);
+			}
+			logger.warn("Pooled shell died, it is replaced");
+			shellDied(this);
+		}
+
+		/**
+		 * Let the shell exit, it is no longer used
+		 */
+		void retire(){
+			synchronized(this){
+				if(this.dead || this.retired){
+					return;
+				}
+				this.retired = true;
+			}
+			try{
+				this.stdIn.close();
+			}catch(IOException e){
+				this.shell.destroy();
+			}
+		}
+	}
+
+}
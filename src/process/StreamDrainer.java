@@ -0,0 +1,110 @@
+package process;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a process stream in the background and hands every chunk to an OutputBuffer.
+ * Reading eagerly also keeps the process from blocking on a full OS pipe buffer.
+ * Once the stream is closed the buffer is marked and the onClosed callback is run on the drainer thread.
+ *
+ * A drainer either runs as a blocking task on its own thread (run()), or is polled without blocking by a
+ * shared IOPump (pumpAvailable()).
+ *
+ * @author polle
+ *
+ */
+class StreamDrainer implements Runnable{
+
+	static final int CHUNK_SIZE = 8192;
+
+	private final Logger logger = LoggerFactory.getLogger(StreamDrainer.class);
+
+	private final Process process;
+	private final InputStream in;
+	private final OutputBuffer out;
+	private final Runnable onClosed;
+	private boolean finished = false;
+
+
+	StreamDrainer(Process process, InputStream in, OutputBuffer out, Runnable onClosed){
+		this.process = process;
+		this.in = in;
+		this.out = out;
+		this.onClosed = onClosed;
+	}
+
+
+	@Override
+	public void run() {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		try{
+			int read;
+			while((read = this.in.read(chunk)) >= 0){
+				this.out.append(chunk, 0, read);
+			}
+		}catch(IOException e){
+			logger.warn(e.getMessage());
+		}finally{
+			finish();
+		}
+	}
+
+
+	/**
+	 * Read the data that is available right now, without blocking.
+	 *
+	 * @param buffer
+	 * 		A scratch buffer to read into
+	 * @return
+	 * 		The number of bytes read, 0 if no data is available and -1 if the stream is finished
+	 */
+	int pumpAvailable(byte[] buffer){
+		try{
+			int available = this.in.available();
+			if(available <= 0){
+				return 0;
+			}
+			int read = this.in.read(buffer, 0, Math.min(available, buffer.length));
+			if(read < 0){
+				finish();
+				return -1;
+			}
+			this.out.append(buffer, 0, read);
+			return read;
+		}catch(IOException e){
+			logger.warn(e.getMessage());
+			finish();
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Check if the process writing to the stream is still running.
+	 * Once it is not, a stream without available data can only be at its end (or held open by a child of the
+	 * process), which can not be detected without a blocking read.
+	 */
+	boolean isSourceAlive(){
+		return this.process.isAlive();
+	}
+
+
+	private void finish(){
+		if(this.finished){
+			return;
+		}
+		this.finished = true;
+		this.out.markEOF();
+		try{
+			this.in.close();
+		}catch(IOException e){
+			logger.warn(e.getMessage());
+		}
+		this.onClosed.run();
+	}
+
+}
@@ -0,0 +1,216 @@
+package process;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Decides where a standard stream of a SProcess is connected to when it is executed.
+ * Streams that are not piped are handled by the OS, the JVM never reads or writes their bytes.
+ *
+ * Available redirects:
+ * 		- pipe(): connect the stream to the JVM, output is read by the SProcess (default)
+ * 		- toFile(path): write the output to a file, truncating it
+ * 		- appendToFile(path): append the output to a file
+ * 		- fromFile(path): read the input from a file
+ * 		- discard(): drop the output, or give the process an empty input
+ * 		- inherit(): share the stream of the JVM itself
+ *
+ * @author polle
+ *
+ */
+public final class StreamRedirect {
+
+	private static final StreamRedirect PIPE = new StreamRedirect(MODE.PIPE, null);
+	private static final StreamRedirect DISCARD = new StreamRedirect(MODE.DISCARD, null);
+	private static final StreamRedirect INHERIT = new StreamRedirect(MODE.INHERIT, null);
+
+	// Written to or read from for discarded streams, see ProcessBuilder.Redirect.DISCARD in Java 9
+	private static final File NULL_FILE = new File(System.getProperty("os.name", "").startsWith("Windows") ? "NUL" : "/dev/null");
+
+	private final MODE mode;
+	private final Path file;
+
+
+	private StreamRedirect(MODE mode, Path file){
+		this.mode = mode;
+		this.file = file;
+	}
+
+
+	/**
+	 * Connect the stream to the JVM
+	 *
+	 * @return
+	 * 		The pipe redirect
+	 */
+	public static StreamRedirect pipe(){
+		return PIPE;
+	}
+
+
+	/**
+	 * Drop all output of the stream, or give the process an empty stdIn
+	 *
+	 * @return
+	 * 		The discard redirect
+	 */
+	public static StreamRedirect discard(){
+		return DISCARD;
+	}
+
+
+	/**
+	 * Share the corresponding stream of the JVM with the process
+	 *
+	 * @return
+	 * 		The inherit redirect
+	 */
+	public static StreamRedirect inherit(){
+		return INHERIT;
+	}
+
+
+	/**
+	 * Write the output of the stream to the given file, which is created or truncated.
+	 * Only valid for stdOut and stdError.
+	 *
+	 * @param file
+	 * 		The file to write to
+	 * @return
+	 * 		A redirect to the given file
+	 */
+	public static StreamRedirect toFile(Path file){
+		return new StreamRedirect(MODE.FILE, checkFile(file));
+	}
+
+
+	/**
+	 * Append the output of the stream to the given file, which is created if it does not exist.
+	 * Only valid for stdOut and stdError.
+	 *
+	 * @param file
+	 * 		The file to append to
+	 * @return
+	 * 		A redirect appending to the given file
+	 */
+	public static StreamRedirect appendToFile(Path file){
+		return new StreamRedirect(MODE.APPEND, checkFile(file));
+	}
+
+
+	/**
+	 * Read the input of the process from the given file.
+	 * Only valid for stdIn.
+	 *
+	 * @param file
+	 * 		The file to read from
+	 * @return
+	 * 		A redirect from the given file
+	 */
+	public static StreamRedirect fromFile(Path file){
+		return new StreamRedirect(MODE.READ, checkFile(file));
+	}
+
+
+	private static Path checkFile(Path file){
+		if(file == null){
+			throw new IllegalArgumentException("Redirect file can not be null");
+		}
+		return file;
+	}
+
+
+	/**
+	 * Get the mode of this redirect
+	 *
+	 * @return
+	 * 		The mode of this redirect
+	 */
+	public MODE getMode(){
+		return this.mode;
+	}
+
+
+	/**
+	 * Get the file of this redirect
+	 *
+	 * @return
+	 * 		The file written to or read from, null for the pipe, discard and inherit redirects
+	 */
+	public Path getFile(){
+		return this.file;
+	}
+
+
+	/**
+	 * Check if the stream is connected to the JVM
+	 *
+	 * @return
+	 * 		true for the pipe redirect
+	 */
+	public boolean isPipe(){
+		return this.mode == MODE.PIPE;
+	}
+
+
+	/**
+	 * Get the matching ProcessBuilder redirect
+	 */
+	ProcessBuilder.Redirect toProcessBuilderRedirect(boolean input){
+		switch(this.mode){
+		case DISCARD:
+			return input ? ProcessBuilder.Redirect.from(NULL_FILE) : ProcessBuilder.Redirect.to(NULL_FILE);
+		case INHERIT:
+			return ProcessBuilder.Redirect.INHERIT;
+		case FILE:
+			return ProcessBuilder.Redirect.to(this.file.toFile());
+		case APPEND:
+			return ProcessBuilder.Redirect.appendTo(this.file.toFile());
+		case READ:
+			return ProcessBuilder.Redirect.from(this.file.toFile());
+		default:
+			return ProcessBuilder.Redirect.PIPE;
+		}
+	}
+
+
+	/**
+	 * Check if executing a process with this redirect once gives the same as executing it several times, so
+	 * its result can be shared. Not the case for output written to a file or to a stream of the JVM.
+	 */
+	boolean isShareable(){
+		return this.mode != MODE.FILE && this.mode != MODE.APPEND && this.mode != MODE.INHERIT;
+	}
+
+
+	@Override
+	public boolean equals(Object other){
+		if(!(other instanceof StreamRedirect)){
+			return false;
+		}
+		StreamRedirect redirect = (StreamRedirect) other;
+		return this.mode == redirect.mode && Objects.equals(this.file, redirect.file);
+	}
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(this.mode, this.file);
+	}
+
+
+	@Override
+	public String toString(){
+		return this.file == null ? this.mode.toString() : this.mode + "(" + this.file + ")";
+	}
+
+
+	/**
+	 * This enum represents the possible redirect modes.
+	 */
+	public enum MODE{
+		PIPE, FILE, APPEND, READ, DISCARD, INHERIT;
+	}
+
+}
@@ -0,0 +1,604 @@
+package process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import process.exceptions.SProcessNotYetStartedException;
+
+/**
+ * Copies one process stream to several consumers at once: the stdIn of other processes and in-JVM
+ * OutputListeners. See SProcessPiped.TeeOutput() and SProcessPiped.TeeError().
+ *
+ * The stream is read once, by a single reader. Every chunk read is shared by all branches without copying,
+ * each branch queues the chunks for its consumer and delivers them on its own thread, so a slow consumer
+ * does not hold up the others until its queue is full. What happens then is decided by the policy:
+ * 		- BLOCK: the reader waits for the consumer, so the slowest consumer sets the pace for all of them
+ * 		- DROP: the chunk is skipped for that consumer only
+ * 		- SPILL: the chunk is appended to a temporary file, the consumer reads it from there once it caught up
+ *
+ * A branch whose consumer fails (for example a process that exits before reading all of its input) stops
+ * receiving data, the other branches continue. Once the stream ends every branch delivers what it has queued
+ * and then closes the stdIn of its process or calls onClose() on its listener.
+ *
+ * Consumers are added before the tee is started, so none of them misses the start of the stream.
+ *
+ * @author polle
+ *
+ */
+public final class Tee {
+
+	/**
+	 * Default size of the chunks read from the stream, in bytes.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Default number of bytes a branch queues in memory before the policy applies.
+	 */
+	public static final long DEFAULT_QUEUE_CAPACITY = 1024 * 1024;
+
+	private final Logger logger = LoggerFactory.getLogger(Tee.class);
+
+	private final SProcessPiped sender;
+	private final InputStream in;
+	private final POLICY policy;
+
+	// Guarded by this tee until it is started, fixed afterwards
+	private final List<Branch> branches = new ArrayList<>();
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private long queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private Path spillDirectory = null;
+	private boolean started = false;
+
+	// Statistics, only written by the reader
+	private volatile long bytesRead = 0;
+	private volatile boolean readerFinished = false;
+
+
+	Tee(SProcessPiped sender, InputStream in, POLICY policy){
+		if(policy == null){
+			throw new IllegalArgumentException("A tee needs a slow consumer policy");
+		}
+		this.sender = sender;
+		this.in = in;
+		this.policy = policy;
+	}
+
+
+	/**
+	 * Add a process that receives the stream on its stdIn, its stdIn is closed at the end of the stream
+	 *
+	 * @param process
+	 * 		The receiving process
+	 * @return
+	 * 		This tee
+	 * @throws SProcessNotYetStartedException
+	 * 		The receiving process has not yet been executed by a SProcessExecutor
+	 */
+	public synchronized Tee to(SProcessPiped process) throws SProcessNotYetStartedException{
+		checkNotStarted();
+		if(process.getProcess() == null){
+			throw new SProcessNotYetStartedException(process);
+		}
+		process.connectInputPipe(this.sender);
+		OutputStream out = process.getProcess().getOutputStream();
+		this.branches.add(new Branch(process.getCommand(), new Sink(){
+			@Override
+			public void write(byte[] data, int offset, int length) throws IOException {
+				out.write(data, offset, length);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				// Closing the stdIn of the receiver signals EOF to it
+				out.close();
+			}
+		}));
+		return this;
+	}
+
+
+	/**
+	 * Add a listener that receives the stream in the JVM. It is called on the thread of its branch, not on the
+	 * thread reading the stream, and may take its time as long as its queue does not fill up.
+	 *
+	 * @param listener
+	 * 		The receiving listener
+	 * @return
+	 * 		This tee
+	 */
+	public synchronized Tee to(OutputListener listener){
+		checkNotStarted();
+		this.branches.add(new Branch(listener.toString(), new Sink(){
+			@Override
+			public void write(byte[] data, int offset, int length) {
+				listener.onOutput(data, offset, length);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+				listener.onClose();
+			}
+		}));
+		return this;
+	}
+
+
+	/**
+	 * Set the size of the chunks read from the stream
+	 *
+	 * @param bufferSize
+	 * 		The chunk size in bytes, 64KB by default
+	 * @return
+	 * 		This tee
+	 */
+	public synchronized Tee setBufferSize(int bufferSize){
+		checkNotStarted();
+		if(bufferSize <= 0){
+			throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+		}
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+
+	/**
+	 * Set the number of bytes each branch queues in memory before the policy applies.
+	 * A branch always accepts one chunk when its queue is empty, whatever its size.
+	 *
+	 * @param queueCapacity
+	 * 		The capacity in bytes, 1MB by default
+	 * @return
+	 * 		This tee
+	 */
+	public synchronized Tee setQueueCapacity(long queueCapacity){
+		checkNotStarted();
+		if(queueCapacity <= 0){
+			throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+
+	/**
+	 * Set the directory of the temporary files used by the SPILL policy
+	 *
+	 * @param spillDirectory
+	 * 		The directory, null for the default temporary directory
+	 * @return
+	 * 		This tee
+	 */
+	public synchronized Tee setSpillDirectory(Path spillDirectory){
+		checkNotStarted();
+		this.spillDirectory = spillDirectory;
+		return this;
+	}
+
+
+	/**
+	 * Start reading the stream and delivering it to the consumers, on the IO executor of the sending process.
+	 * Without consumers the stream is read and discarded.
+	 *
+	 * @return
+	 * 		This tee
+	 */
+	public Tee start(){
+		synchronized(this){
+			checkNotStarted();
+			this.started = true;
+		}
+		for(Branch branch : this.branches){
+			this.sender.getIOExecutor().execute(branch::deliver);
+		}
+		this.sender.getIOExecutor().execute(this::read);
+		return this;
+	}
+
+
+	private void checkNotStarted(){
+		if(this.started){
+			throw new IllegalStateException("The tee is already started");
+		}
+	}
+
+
+	private void read(){
+		byte[] buffer = new byte[this.bufferSize];
+		try{
+			while(true){
+				int read = this.in.read(buffer);
+				if(read < 0){
+					break;
+				}
+				byte[] chunk;
+				if(read < buffer.length / 2){
+					// Keep the large buffer for the next read, the chunk only holds what was read
+					chunk = Arrays.copyOf(buffer, read);
+				}else{
+					chunk = buffer;
+					buffer = new byte[this.bufferSize];
+				}
+				for(Branch branch : this.branches){
+					branch.offer(chunk, read);
+				}
+				this.bytesRead += read;
+			}
+		}catch(InterruptedIOException e){
+			logger.warn("Tee from \"" + this.sender.getCommand() + "\" was interrupted");
+		}catch(IOException e){
+			logger.error("Tee from \"" + this.sender.getCommand() + "\" failed: " + e.getMessage());
+		}finally{
+			try{
+				this.in.close();
+			}catch(IOException e){
+				logger.warn(e.getMessage());
+			}
+			for(Branch branch : this.branches){
+				branch.end();
+			}
+			this.readerFinished = true;
+		}
+	}
+
+
+	/**
+	 * Get the slow consumer policy of this tee
+	 *
+	 * @return
+	 * 		The policy
+	 */
+	public POLICY getPolicy(){
+		return this.policy;
+	}
+
+
+	/**
+	 * Get the branches of this tee, one per consumer in the order they were added
+	 *
+	 * @return
+	 * 		An unmodifiable list of the branches
+	 */
+	public synchronized List<Branch> getBranches(){
+		return Collections.unmodifiableList(new ArrayList<>(this.branches));
+	}
+
+
+	/**
+	 * Get the number of bytes read from the stream
+	 *
+	 * @return
+	 * 		The number of bytes read so far
+	 */
+	public long getBytesRead(){
+		return this.bytesRead;
+	}
+
+
+	/**
+	 * Check if this tee has finished: the stream ended and every branch delivered its data or failed
+	 *
+	 * @return
+	 * 		true if the tee no longer transfers data
+	 */
+	public boolean isFinished(){
+		if(!this.readerFinished){
+			return false;
+		}
+		for(Branch branch : this.branches){
+			if(!branch.isFinished()){
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * The consumer of a branch
+	 */
+	private interface Sink{
+		void write(byte[] data, int offset, int length) throws IOException;
+		void flush() throws IOException;
+		void close() throws IOException;
+	}
+
+
+	/**
+	 * The queue and statistics of one consumer of a tee
+	 */
+	public final class Branch{
+
+		private final String name;
+		private final Sink sink;
+
+		// Guarded by this branch. Chunks in memory come before the chunks in the spill file.
+		private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+		private final ArrayDeque<Integer> lengths = new ArrayDeque<>();
+		private long queued = 0;
+		private boolean eof = false;
+		private boolean failed = false;
+		private Path spillFile = null;
+		private FileChannel spillChannel = null;
+		private long spillRead = 0;
+		private long spillWrite = 0;
+
+		private volatile long delivered = 0;
+		private volatile long dropped = 0;
+		private volatile long spilled = 0;
+		private volatile boolean finished = false;
+
+
+		private Branch(String name, Sink sink){
+			this.name = name;
+			this.sink = sink;
+		}
+
+
+		/**
+		 * Queue a chunk read from the stream, called by the reader
+		 */
+		private synchronized void offer(byte[] chunk, int length) throws InterruptedIOException{
+			// Once spilling, everything goes to the file until the consumer caught up, to keep the order
+			while(!this.failed && this.spillRead == this.spillWrite && !this.chunks.isEmpty() && this.queued + length > Tee.this.queueCapacity){
+				if(Tee.this.policy == POLICY.DROP){
+					this.dropped += length;
+					return;
+				}
+				if(Tee.this.policy == POLICY.SPILL){
+					break;
+				}
+				try{
+					this.wait();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for \"" + this.name + "\"");
+				}
+			}
+			if(this.failed){
+				this.dropped += length;
+				return;
+			}
+			if(this.spillRead < this.spillWrite || (!this.chunks.isEmpty() && this.queued + length > Tee.this.queueCapacity)){
+				spill(chunk, length);
+			}else{
+				this.chunks.add(chunk);
+				this.lengths.add(length);
+				this.queued += length;
+			}
+			this.notifyAll();
+		}
+
+
+		private void spill(byte[] chunk, int length){
+			try{
+				if(this.spillChannel == null){
+					this.spillFile = Tee.this.spillDirectory == null
+							? Files.createTempFile("sprocess-tee-", ".out")
+							: Files.createTempFile(Tee.this.spillDirectory, "sprocess-tee-", ".out");
+					this.spillChannel = FileChannel.open(this.spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+				}
+				ByteBuffer data = ByteBuffer.wrap(chunk, 0, length);
+				long position = this.spillWrite;
+				while(data.hasRemaining()){
+					position += this.spillChannel.write(data, position);
+				}
+				this.spillWrite = position;
+				this.spilled += length;
+			}catch(IOException e){
+				logger.error("Tee branch \"" + this.name + "\" can not spill to disk: " + e.getMessage());
+				this.dropped += length;
+			}
+		}
+
+
+		/**
+		 * Mark the end of the stream, called by the reader
+		 */
+		private synchronized void end(){
+			this.eof = true;
+			this.notifyAll();
+		}
+
+
+		/**
+		 * Deliver the queued chunks to the consumer until the stream ended, runs on the thread of the branch
+		 */
+		private void deliver(){
+			byte[] fileBuffer = null;
+			try{
+				while(true){
+					byte[] chunk = null;
+					int length;
+					long filePosition = -1;
+					boolean more;
+					synchronized(this){
+						while(this.chunks.isEmpty() && this.spillRead == this.spillWrite && !this.eof){
+							this.wait();
+						}
+						if(!this.chunks.isEmpty()){
+							chunk = this.chunks.poll();
+							length = this.lengths.poll();
+							this.queued -= length;
+							this.notifyAll();
+						}else if(this.spillRead < this.spillWrite){
+							filePosition = this.spillRead;
+							length = (int) Math.min(this.spillWrite - this.spillRead, Tee.this.bufferSize);
+						}else{
+							break;
+						}
+						more = !this.chunks.isEmpty() || this.spillRead + (chunk == null ? length : 0) < this.spillWrite;
+					}
+					if(chunk == null){
+						if(fileBuffer == null){
+							fileBuffer = new byte[Tee.this.bufferSize];
+						}
+						ByteBuffer data = ByteBuffer.wrap(fileBuffer, 0, length);
+						while(data.hasRemaining()){
+							this.spillChannel.read(data, filePosition + data.position());
+						}
+						chunk = fileBuffer;
+					}
+					this.sink.write(chunk, 0, length);
+					this.delivered += length;
+					if(filePosition >= 0){
+						consumeSpill(length);
+					}
+					// Only flush when there is nothing more to deliver right now
+					if(!more){
+						this.sink.flush();
+					}
+				}
+			}catch(InterruptedException e){
+				logger.warn("Tee branch \"" + this.name + "\" was interrupted");
+				fail();
+			}catch(IOException | RuntimeException e){
+				logger.error("Tee branch \"" + this.name + "\" failed: " + e.getMessage());
+				fail();
+			}finally{
+				try{
+					this.sink.close();
+				}catch(IOException | RuntimeException e){
+					logger.warn(e.getMessage());
+				}
+				closeSpill();
+				this.finished = true;
+			}
+		}
+
+
+		private synchronized void consumeSpill(int length) throws IOException{
+			this.spillRead += length;
+			if(this.spillRead == this.spillWrite){
+				// Caught up, new chunks go to memory again
+				this.spillChannel.truncate(0);
+				this.spillRead = 0;
+				this.spillWrite = 0;
+				this.notifyAll();
+			}
+		}
+
+
+		/**
+		 * Stop delivering, everything queued and everything read later is dropped
+		 */
+		private synchronized void fail(){
+			this.failed = true;
+			this.dropped += this.queued + this.spillWrite - this.spillRead;
+			this.chunks.clear();
+			this.lengths.clear();
+			this.queued = 0;
+			this.spillRead = this.spillWrite;
+			this.notifyAll();
+		}
+
+
+		private synchronized void closeSpill(){
+			if(this.spillChannel == null){
+				return;
+			}
+			try{
+				this.spillChannel.close();
+				Files.deleteIfExists(this.spillFile);
+			}catch(IOException e){
+				logger.warn("Could not delete tee spill file " + this.spillFile + ": " + e.getMessage());
+			}
+			this.spillChannel = null;
+		}
+
+
+		/**
+		 * Get the name of the consumer, the command of a process or the listener
+		 *
+		 * @return
+		 * 		The name of the consumer
+		 */
+		public String getName(){
+			return this.name;
+		}
+
+
+		/**
+		 * @return
+		 * 		The number of bytes delivered to the consumer so far
+		 */
+		public long getBytesDelivered(){
+			return this.delivered;
+		}
+
+
+		/**
+		 * @return
+		 * 		The number of bytes the consumer did not receive, because of the DROP policy or because it failed
+		 */
+		public long getBytesDropped(){
+			return this.dropped;
+		}
+
+
+		/**
+		 * @return
+		 * 		The number of bytes that went through the spill file because the consumer was too slow
+		 */
+		public long getBytesSpilled(){
+			return this.spilled;
+		}
+
+
+		/**
+		 * @return
+		 * 		true if delivering to the consumer failed
+		 */
+		public synchronized boolean isFailed(){
+			return this.failed;
+		}
+
+
+		/**
+		 * @return
+		 * 		true if this branch no longer delivers data
+		 */
+		public boolean isFinished(){
+			return this.finished;
+		}
+
+
+		@Override
+		public String toString(){
+			return "Tee.Branch[" + this.name + ", delivered=" + this.delivered + ", dropped=" + this.dropped + ", spilled=" + this.spilled + "]";
+		}
+	}
+
+
+	/**
+	 * This enum represents what a tee does with a chunk for a consumer whose queue is full.
+	 */
+	public enum POLICY{
+		BLOCK, DROP, SPILL;
+	}
+
+}
@@ -0,0 +1,185 @@
+package process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the deadlines of all SProcesses (timeouts, kill escalation) on a single shared daemon thread.
+ *
+ * Deadlines are kept in a hashed timer wheel: a ring of slots of one tick each, a deadline goes in the slot of
+ * its tick and waits there for as many rounds of the wheel as needed. Scheduling and cancelling are O(1), so
+ * a timeout can be armed for every process and cancelled when it exits without a thread or a sorted queue
+ * per process. Deadlines fire at most one tick late. The thread sleeps when no deadline is pending.
+ *
+ * @author polle
+ *
+ */
+final class TimerWheel implements Runnable{
+
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final int WHEEL_SIZE = 512;
+
+	private static final TimerWheel instance = new TimerWheel();
+
+	// logger
+	final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+	// Head of the doubly linked list of deadlines per slot
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	private final long origin = System.nanoTime();
+	// All slots up to (excluding) this tick have been processed
+	private long nextTick = 0;
+	private int pending = 0;
+	private Thread thread = null;
+
+
+	private TimerWheel(){
+	}
+
+
+	/**
+	 * Run the given task on the timer thread once the delay has passed, unless it is cancelled before.
+	 * The task must return quickly, it delays all other deadlines.
+	 *
+	 * @return
+	 * 		The handle to cancel the deadline with
+	 */
+	static Timeout schedule(Runnable task, long delay, TimeUnit unit){
+		Timeout timeout = new Timeout(task);
+		instance.add(timeout, unit.toNanos(delay));
+		return timeout;
+	}
+
+
+	private synchronized void add(Timeout timeout, long delayNanos){
+		long now = System.nanoTime() - this.origin;
+		if(this.pending == 0){
+			// Nothing to process while idle, skip the ticks that passed
+			this.nextTick = Math.max(this.nextTick, now / TICK_NANOS);
+		}
+		long deadline = now + Math.max(0, Math.min(delayNanos, Long.MAX_VALUE / 2));
+		// Round up, a deadline never fires early
+		timeout.tick = Math.max(this.nextTick, (deadline + TICK_NANOS - 1) / TICK_NANOS);
+		link(timeout);
+		this.pending++;
+		if(this.thread == null){
+			this.thread = new Thread(this, "SProcess timer");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}else if(this.pending == 1){
+			this.notifyAll();
+		}
+	}
+
+
+	private synchronized void remove(Timeout timeout){
+		if(timeout.slot >= 0){
+			unlink(timeout);
+			this.pending--;
+		}
+	}
+
+
+	private void link(Timeout timeout){
+		int slot = (int) (timeout.tick & (WHEEL_SIZE - 1));
+		timeout.slot = slot;
+		timeout.previous = null;
+		timeout.next = this.wheel[slot];
+		if(timeout.next != null){
+			timeout.next.previous = timeout;
+		}
+		this.wheel[slot] = timeout;
+	}
+
+
+	private void unlink(Timeout timeout){
+		if(timeout.previous != null){
+			timeout.previous.next = timeout.next;
+		}else{
+			this.wheel[timeout.slot] = timeout.next;
+		}
+		if(timeout.next != null){
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.slot = -1;
+		timeout.previous = null;
+		timeout.next = null;
+	}
+
+
+	@Override
+	public void run() {
+		List<Timeout> expired = new ArrayList<>();
+		while(true){
+			synchronized(this){
+				long now = System.nanoTime() - this.origin;
+				long currentTick = now / TICK_NANOS;
+				while(this.pending > 0 && this.nextTick <= currentTick){
+					Timeout timeout = this.wheel[(int) (this.nextTick & (WHEEL_SIZE - 1))];
+					while(timeout != null){
+						Timeout next = timeout.next;
+						if(timeout.tick <= this.nextTick){
+							unlink(timeout);
+							this.pending--;
+							expired.add(timeout);
+						}
+						timeout = next;
+					}
+					this.nextTick++;
+				}
+				if(expired.isEmpty()){
+					try{
+						if(this.pending == 0){
+							this.wait();
+						}else{
+							long sleep = (this.nextTick * TICK_NANOS - now) / 1000000;
+							this.wait(Math.max(1, sleep));
+						}
+					}catch(InterruptedException e){
+						// Daemon thread, keep running
+					}
+					continue;
+				}
+			}
+
+			for(Timeout timeout : expired){
+				try{
+					timeout.task.run();
+				}catch(RuntimeException e){
+					logger.warn("SProcess deadline task failed: " + e);
+				}
+			}
+			expired.clear();
+		}
+	}
+
+
+	/**
+	 * A scheduled deadline
+	 */
+	static final class Timeout{
+
+		private final Runnable task;
+		// Guarded by the TimerWheel, slot is -1 once the deadline fired or was cancelled
+		private long tick;
+		private int slot = -1;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(Runnable task){
+			this.task = task;
+		}
+
+		/**
+		 * Cancel the deadline, nothing happens if it already fired
+		 */
+		void cancel(){
+			instance.remove(this);
+		}
+	}
+
+}
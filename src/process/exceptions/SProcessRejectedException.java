@@ -0,0 +1,21 @@
+package process.exceptions;
+
+import java.io.IOException;
+
+import process.SProcess;
+
+/**
+ * Thrown when the SProcessExecutor refuses to start a SProcess because its concurrency limit is reached
+ * and its wait queue is full. It is an IOException like the error of a failed fork when the OS runs out of
+ * processes, so callers handling that case handle this one as well.
+ */
+public class SProcessRejectedException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public SProcessRejectedException(SProcess command, String reason){
+		super("SProcess was rejected by the executor: " + reason + ". "
+				+ "Command string is: \"" + command.getCommand() + "\"");
+	}
+
+}